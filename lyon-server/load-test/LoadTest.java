@@ -0,0 +1,334 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+// Concurrent-client load test for lyon-server, run as a single-file program (no build needed):
+//
+//   java load-test/LoadTest.java --upstream-port=9098 --clients=1000 --duration=30
+//
+// It starts a stand-in Grand Lyon upstream on --upstream-port: data-example's vehicle-monitoring.json and a
+// generated passages feed that takes --upstream-delay-ms to answer. Start the server against it, e.g.
+//
+//   java -Xmx256m -jar target/lyon-server-0.0.1-SNAPSHOT.jar \
+//       --grandlyon.api.url=http://localhost:9098/vehicle-monitoring.json \
+//       --grandlyon.api.passages=http://localhost:9098/passages.json
+//
+// then --clients virtual threads request /api/vehicles/passages in a loop, keeping that many requests open
+// on the server while the passages cache is refreshed from the slow upstream. A probe meanwhile polls
+// /api/vehicles, which never touches upstream: its latency shows whether the server still has threads left
+// for other work. Compare with the server started with --spring.threads.virtual.enabled=false.
+//
+// Map clients are simulated with --pollers, each fetching /api/vehicles gzipped every --poll-interval-ms
+// (in the compact encoding with --binary=true), and --streamers, each holding /api/vehicles/stream open; their lag
+// is the time from the server's fetch to the event's arrival. These need no upstream at all when the server
+// runs in the replay profile, which plays recorded feeds from data-example:
+//
+//   java -jar target/lyon-server-0.0.1-SNAPSHOT.jar --spring.profiles.active=replay
+//   java load-test/LoadTest.java --pollers=2000 --streamers=500 --duration=60
+public class LoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        String target = options.getOrDefault("target", "http://localhost:8080");
+        int clients = Integer.parseInt(options.getOrDefault("clients", "0"));
+        int pollers = Integer.parseInt(options.getOrDefault("pollers", "0"));
+        long pollIntervalMs = Long.parseLong(options.getOrDefault("poll-interval-ms", "3000"));
+        boolean binary = Boolean.parseBoolean(options.getOrDefault("binary", "false"));
+        int streamers = Integer.parseInt(options.getOrDefault("streamers", "0"));
+        int seconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int upstreamPort = Integer.parseInt(options.getOrDefault("upstream-port", "0"));
+        long upstreamDelayMs = Long.parseLong(options.getOrDefault("upstream-delay-ms", "1000"));
+        Path dataDir = Path.of(options.getOrDefault("data-dir", "../data-example"));
+        if (clients + pollers + streamers == 0) {
+            System.err.println("Usage: java load-test/LoadTest.java [--clients=N] [--pollers=N [--binary=true]]"
+                    + " [--streamers=N] [--duration=s] [--target=url] [--upstream-port=port], see the source");
+            System.exit(2);
+        }
+
+        HttpServer upstream = upstreamPort > 0 ? startUpstream(upstreamPort, upstreamDelayMs, dataDir) : null;
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        // Warm up: the first request starts the server's refresher and loads the passages once
+        get(client, target + "/api/vehicles");
+        if (clients > 0) {
+            get(client, target + "/api/vehicles/passages?stopId=1");
+        }
+
+        Stats passages = new Stats("GET /api/vehicles/passages");
+        Stats vehicles = new Stats("GET /api/vehicles (probe)");
+        Stats polls = new Stats("GET /api/vehicles" + (binary ? " (binary)" : ""));
+        Stats events = new Stats("/api/vehicles/stream lag");
+        List<InputStream> streams = Collections.synchronizedList(new ArrayList<>());
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                int seed = i;
+                threads.submit(() -> {
+                    Random random = new Random(seed);
+                    while (System.nanoTime() < end) {
+                        passages.time(client, target + "/api/vehicles/passages?stopId=" + random.nextInt(3000));
+                    }
+                });
+            }
+            for (int i = 0; i < pollers; i++) {
+                int seed = i;
+                threads.submit(() -> {
+                    // Spread over the interval, like browsers opened at different times
+                    sleep(new Random(seed).nextLong(pollIntervalMs));
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        polls.poll(client, target + "/api/vehicles", binary);
+                        sleep(pollIntervalMs - (System.nanoTime() - start) / 1_000_000);
+                    }
+                });
+            }
+            for (int i = 0; i < streamers; i++) {
+                threads.submit(() -> events.stream(client, target + "/api/vehicles/stream", streams));
+            }
+            threads.submit(() -> {
+                while (System.nanoTime() < end) {
+                    vehicles.time(client, target + "/api/vehicles");
+                    sleep(100);
+                }
+            });
+            // Streams only end when closed
+            sleep((end - System.nanoTime()) / 1_000_000);
+            synchronized (streams) {
+                for (InputStream stream : streams) {
+                    stream.close();
+                }
+            }
+        }
+
+        System.out.printf("%d clients, %d pollers every %d ms, %d streamers for %d s against %s%n",
+                clients, pollers, pollIntervalMs, streamers, seconds, target);
+        if (clients > 0) {
+            passages.print(seconds);
+        }
+        if (pollers > 0) {
+            polls.print(seconds);
+        }
+        if (streamers > 0) {
+            events.print(seconds);
+        }
+        vehicles.print(seconds);
+        if (upstream != null) {
+            upstream.stop(0);
+        }
+    }
+
+    private static HttpServer startUpstream(int port, long delayMs, Path dataDir) throws IOException {
+        byte[] vehicles = Files.readAllBytes(dataDir.resolve("vehicle-monitoring.json"));
+        byte[] passages = passagesFeed(3000, 10);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/vehicle-monitoring.json", exchange -> respond(exchange, vehicles));
+        server.createContext("/passages.json", exchange -> {
+            sleep(delayMs);
+            respond(exchange, passages);
+        });
+        server.start();
+        System.out.printf("Stand-in upstream on port %d, passages answered after %d ms%n", port, delayMs);
+        return server;
+    }
+
+    // Same layout as tclpassagearret, see PassageBenchmark
+    private static byte[] passagesFeed(int stops, int passagesPerStop) {
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder("{\"fields\":[\"id\",\"ligne\"],\"values\":[");
+        int gid = 0;
+        for (int stop = 0; stop < stops; stop++) {
+            for (int p = 0; p < passagesPerStop; p++) {
+                if (gid > 0) {
+                    json.append(',');
+                }
+                json.append(String.format("{\"id\":\"%d\",\"ligne\":\"C%d\",\"direction\":\"A\","
+                        + "\"delaipassage\":\"%d min\",\"type\":\"E\",\"heurepassage\":\"2025-12-29 %02d:%02d:00\","
+                        + "\"idtarretdestination\":%d,\"coursetheorique\":\"%d\",\"gid\":%d,"
+                        + "\"last_update_fme\":\"2025-12-29 18:41:00\"}",
+                        stop, random.nextInt(100), random.nextInt(60), 18 + random.nextInt(4), random.nextInt(60),
+                        random.nextInt(stops), random.nextInt(100000), gid++));
+            }
+        }
+        json.append("],\"nb_results\":").append(gid).append('}');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Gzipped when asked for, like data.grandlyon.com
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                out.write(body);
+            }
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static int get(HttpClient client, String url) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (arg.startsWith("--") && equals > 2) {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    private static final class Stats {
+
+        private final String name;
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void time(HttpClient client, String url) {
+            long start = System.nanoTime();
+            try {
+                if (get(client, url) != 200) {
+                    errors.incrementAndGet();
+                    return;
+                }
+                latencies.add(System.nanoTime() - start);
+            } catch (Exception e) {
+                errors.incrementAndGet();
+            }
+        }
+
+        // Bytes as sent over the wire, still gzipped
+        void poll(HttpClient client, String url, boolean binary) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Accept-Encoding", "gzip")
+                    .header("Accept", binary ? "application/vnd.lyon.vehicles, application/json;q=0.5" : "*/*")
+                    .build();
+            long start = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                    return;
+                }
+                latencies.add(System.nanoTime() - start);
+                bytes.addAndGet(response.body().length);
+            } catch (Exception e) {
+                errors.incrementAndGet();
+            }
+        }
+
+        // One latency per event: from the fetch it carries to its arrival here
+        void stream(HttpClient client, String url, List<InputStream> streams) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .header("Accept", "text/event-stream")
+                    .build();
+            try {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                    response.body().close();
+                    return;
+                }
+                streams.add(response.body());
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(response.body(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    long received = System.currentTimeMillis();
+                    bytes.addAndGet(line.length());
+                    int field = line.indexOf("\"lastFetchTime\":\"");
+                    if (field >= 0) {
+                        int from = field + "\"lastFetchTime\":\"".length();
+                        Instant fetched = Instant.parse(line.substring(from, line.indexOf('"', from)));
+                        latencies.add((received - fetched.toEpochMilli()) * 1_000_000);
+                    }
+                }
+            } catch (Exception e) {
+                // Closed at the end of the run
+            }
+        }
+
+        void print(int seconds) {
+            List<Long> sorted;
+            synchronized (latencies) {
+                sorted = new ArrayList<>(latencies);
+            }
+            Collections.sort(sorted);
+            System.out.printf("%-30s %8d ok %6d errors %8.1f req/s  p50 %7.1f ms  p99 %7.1f ms  max %7.1f ms%s%n",
+                    name, sorted.size(), errors.get(), sorted.size() / (double) seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0),
+                    sorted.isEmpty() || bytes.get() == 0 ? ""
+                            : String.format("  %7.1f KB each", bytes.get() / 1024.0 / sorted.size()));
+        }
+
+        private static double percentile(List<Long> sorted, double p) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.min(sorted.size() - 1, Math.ceil(p * sorted.size()) - 1);
+            return sorted.get(Math.max(0, index)) / 1e6;
+        }
+    }
+}
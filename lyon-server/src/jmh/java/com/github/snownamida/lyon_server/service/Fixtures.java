@@ -0,0 +1,28 @@
+package com.github.snownamida.lyon_server.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Benchmarks read the sample feeds from data-example, next to lyon-server
+final class Fixtures {
+
+	static final String VEHICLE_MONITORING = "vehicle-monitoring.json";
+	static final String TRAM = "sytral_tcl_sytral.tcllignetram_2_0_0.json";
+	static final String METRO = "sytral_tcl_sytral.tcllignemf_2_0_0.json";
+	static final String RHONEXPRESS = "sytral_rx_rhonexpress.rxligne_2_0_0.json";
+
+	private static final Path DIR = Path.of(System.getProperty("fixtures.dir", "../data-example"));
+
+	private Fixtures() {
+	}
+
+	static byte[] read(String name) {
+		try {
+			return Files.readAllBytes(DIR.resolve(name));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Missing fixture " + DIR.resolve(name).toAbsolutePath(), e);
+		}
+	}
+}
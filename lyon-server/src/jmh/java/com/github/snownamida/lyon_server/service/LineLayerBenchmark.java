@@ -0,0 +1,87 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.FilePayload;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The tram layer is the largest sample: storing it as a response, parsing it for tiles and rendering
+// the zoom 14 tile where most tram lines meet
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineLayerBenchmark {
+
+	private static final int Z = 14;
+	private static final int X = 8413;
+	private static final int Y = 5843;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private byte[] tram;
+	private Path cacheDir;
+	private TransportLineService transportLineService;
+	private VectorTileService warmTiles;
+
+	@Setup
+	public void setUp() throws IOException {
+		tram = Fixtures.read(Fixtures.TRAM);
+		cacheDir = Files.createTempDirectory("lyon-lines-bench");
+		// Nothing is fetched, every layer is imported from the fixtures
+		transportLineService = new TransportLineService("http://localhost/metro", "http://localhost/tram",
+				"http://localhost/bus", "http://localhost/rhonexpress", "http://localhost/stops",
+				cacheDir.toString(), Long.MAX_VALUE, 0, objectMapper, new SyncTaskExecutor(),
+				new RestTemplateBuilder(), new UpstreamResilience(3, 5000, 300000, meterRegistry),
+				meterRegistry);
+		transportLineService.importLayer("tram", new ByteArrayInputStream(tram));
+		transportLineService.importLayer("metro", new ByteArrayInputStream(Fixtures.read(Fixtures.METRO)));
+		transportLineService.importLayer("rhonexpress",
+				new ByteArrayInputStream(Fixtures.read(Fixtures.RHONEXPRESS)));
+		// No tile cache, so every call renders
+		warmTiles = new VectorTileService(transportLineService, objectMapper, 0, meterRegistry);
+		warmTiles.getTile("tram", Z, X, Y);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileSystemUtils.deleteRecursively(cacheDir);
+	}
+
+	@Benchmark
+	public FilePayload storeTramLayer() throws IOException {
+		return transportLineService.importLayer("tram", new ByteArrayInputStream(tram));
+	}
+
+	@Benchmark
+	public EncodedPayload parseTramLayerAndRenderTile() {
+		return new VectorTileService(transportLineService, objectMapper, 0, meterRegistry).getTile("tram", Z, X, Y);
+	}
+
+	@Benchmark
+	public EncodedPayload renderTramTile() {
+		return warmTiles.getTile("tram", Z, X, Y);
+	}
+}
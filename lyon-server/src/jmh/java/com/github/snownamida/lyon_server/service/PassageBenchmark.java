@@ -0,0 +1,85 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.Passage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// data-example has no tclpassagearret sample, so the feed is generated with the real field layout
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PassageBenchmark {
+
+	@Param("3000")
+	private int stops;
+
+	@Param("10")
+	private int passagesPerStop;
+
+	private byte[] feed;
+	private PassageReader reader;
+	private PassageIndex index;
+	private List<String> requestedStops;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		StringBuilder json = new StringBuilder("{\"fields\":[\"id\",\"ligne\"],\"values\":[");
+		int gid = 0;
+		for (int stop = 0; stop < stops; stop++) {
+			for (int p = 0; p < passagesPerStop; p++) {
+				if (gid > 0) {
+					json.append(',');
+				}
+				json.append(String.format("{\"id\":\"%d\",\"ligne\":\"C%d\",\"direction\":\"A\","
+						+ "\"delaipassage\":\"%d min\",\"type\":\"E\",\"heurepassage\":\"2025-12-29 %02d:%02d:00\","
+						+ "\"idtarretdestination\":%d,\"coursetheorique\":\"%d\",\"gid\":%d,"
+						+ "\"last_update_fme\":\"2025-12-29 18:41:00\"}",
+						stop, random.nextInt(100), random.nextInt(60), 18 + random.nextInt(4), random.nextInt(60),
+						random.nextInt(stops), random.nextInt(100000), gid++));
+			}
+		}
+		json.append("],\"nb_results\":").append(gid).append('}');
+		feed = json.toString().getBytes(StandardCharsets.UTF_8);
+
+		reader = new PassageReader(new ObjectMapper()
+				.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false));
+		index = reader.read(new ByteArrayInputStream(feed));
+		requestedStops = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			requestedStops.add(Integer.toString(random.nextInt(stops)));
+		}
+	}
+
+	@Benchmark
+	public PassageIndex readAndIndex() throws IOException {
+		return reader.read(new ByteArrayInputStream(feed));
+	}
+
+	@Benchmark
+	public List<Passage> forStops() {
+		return index.forStops(requestedStops);
+	}
+}
@@ -0,0 +1,41 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// One vehicle refresh: parse the SIRI feed and keep one activity per vehicle
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SiriReaderBenchmark {
+
+	private byte[] feed;
+	private SiriReader reader;
+
+	@Setup
+	public void setUp() {
+		feed = Fixtures.read(Fixtures.VEHICLE_MONITORING);
+		reader = new SiriReader(new JsonFactory());
+	}
+
+	@Benchmark
+	public SiriReader.Result readAndDeduplicate() throws IOException {
+		return reader.read(new ByteArrayInputStream(feed));
+	}
+}
@@ -0,0 +1,76 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehicleDelta;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What each refresh costs once the vehicles are known: the full snapshot body with its gzip copy, in JSON
+// and in VehicleWireFormat, and the delta pushed to stream subscribers
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VehiclePayloadBenchmark {
+
+	// Configured like the application's ObjectMapper, Instants as ISO strings
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+	private VehicleData previous;
+	private VehicleData current;
+
+	@Setup
+	public void setUp() throws IOException {
+		SiriReader.Result result = new SiriReader(new JsonFactory())
+				.read(new ByteArrayInputStream(Fixtures.read(Fixtures.VEHICLE_MONITORING)));
+		Instant now = Instant.now();
+		previous = new VehicleData(result.vehicles(), result.responseTimestamp(), now, "OK", 1);
+
+		// Every other vehicle moved a little since the previous refresh
+		List<VehiclePosition> moved = new ArrayList<>(result.vehicles());
+		for (int i = 0; i < moved.size(); i += 2) {
+			VehiclePosition v = moved.get(i);
+			moved.set(i, new VehiclePosition(v.vehicleId(), v.lineId(), v.direction(), v.latitude() + 0.0005,
+					v.longitude() + 0.0005, v.delay(), v.recordedAtTime(), v.validUntilTime(), v.destinationName(),
+					v.dataSource(), v.bearing(), v.vehicleStatus()));
+		}
+		current = new VehicleData(List.copyOf(moved), result.responseTimestamp(), now.plusSeconds(3), "OK", 2);
+	}
+
+	@Benchmark
+	public EncodedPayload encodeSnapshot() throws JsonProcessingException {
+		return EncodedPayload.of(objectMapper.writeValueAsBytes(current));
+	}
+
+	@Benchmark
+	public EncodedPayload encodeBinarySnapshot() {
+		return EncodedPayload.of(VehicleWireFormat.encode(current));
+	}
+
+	@Benchmark
+	public byte[] encodeDelta() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(VehicleDelta.between(previous, current));
+	}
+}
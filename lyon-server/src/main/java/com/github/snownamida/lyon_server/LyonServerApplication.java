@@ -2,8 +2,10 @@ package com.github.snownamida.lyon_server;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class LyonServerApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,79 @@
+package com.github.snownamida.lyon_server.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+// Asks for gzip and inflates it on the fly, the JDK HttpClient leaves both to the caller. Readers still get a
+// plain stream, so nothing is buffered.
+class GzipResponseInterceptor implements ClientHttpRequestInterceptor {
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        }
+        ClientHttpResponse response = execution.execute(request, body);
+        String encoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        return "gzip".equalsIgnoreCase(encoding) ? new GunzippedResponse(response) : response;
+    }
+
+    private static final class GunzippedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final HttpHeaders headers;
+        private InputStream body;
+
+        GunzippedResponse(ClientHttpResponse response) {
+            this.response = response;
+            // The length and encoding describe the compressed bytes, not what readers will see
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(response.getHeaders());
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                // Bodyless responses (304, HEAD) may still carry the header
+                InputStream compressed = new BufferedInputStream(response.getBody());
+                compressed.mark(1);
+                boolean empty = compressed.read() < 0;
+                compressed.reset();
+                body = empty ? compressed : new GZIPInputStream(compressed, 64 * 1024);
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+    }
+}
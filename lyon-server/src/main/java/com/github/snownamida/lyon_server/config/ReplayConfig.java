@@ -0,0 +1,24 @@
+package com.github.snownamida.lyon_server.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.nio.file.Path;
+
+// With the "replay" profile every upstream call is answered from recorded files, see application-replay.properties
+@Configuration
+@Profile("replay")
+public class ReplayConfig {
+
+    @Bean
+    public RestTemplateCustomizer replayRequestFactory(@Value("${grandlyon.replay.dir}") String dir,
+            @Value("${grandlyon.replay.speed:1}") double speed,
+            @Value("${grandlyon.replay.loop:true}") boolean loop) {
+        ReplayRequestFactory requestFactory = new ReplayRequestFactory(Path.of(dir), speed, loop,
+                System::currentTimeMillis);
+        return restTemplate -> restTemplate.setRequestFactory(requestFactory);
+    }
+}
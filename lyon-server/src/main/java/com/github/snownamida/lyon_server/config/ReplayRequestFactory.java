@@ -0,0 +1,189 @@
+package com.github.snownamida.lyon_server.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Answers upstream requests from a directory of recorded responses instead of the network. The last path
+// segment of the URL names the file: vehicle-monitoring.json is served as is, unless recordings named
+// vehicle-monitoring-<epoch millis>.json exist. Those are played back in order, the first one when replay
+// starts and the next ones as their recording times come up, scaled by speed, looping after the last.
+class ReplayRequestFactory implements ClientHttpRequestFactory {
+
+    private static final Pattern RECORDING = Pattern.compile("(.+)-(\\d{13})(\\.[^.]+)");
+
+    // Recordings of one file, oldest first
+    private record Recording(long[] times, Path[] files) {
+    }
+
+    private final Path directory;
+    private final double speed;
+    private final boolean loop;
+    private final LongSupplier clock;
+    private final long startMillis;
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+
+    ReplayRequestFactory(Path directory, double speed, boolean loop, LongSupplier clock) {
+        this.directory = directory;
+        this.speed = speed;
+        this.loop = loop;
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+        System.out.println("Replaying upstream from " + directory.toAbsolutePath() + " at " + speed + "x");
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new ReplayRequest(uri, httpMethod);
+    }
+
+    // The file answering for the given name now, or null
+    Path resolve(String name) {
+        Recording recording = recordings.computeIfAbsent(name, this::scan);
+        if (recording.files().length == 0) {
+            Path file = directory.resolve(name);
+            return Files.isRegularFile(file) ? file : null;
+        }
+        long[] times = recording.times();
+        long first = times[0];
+        long span = times[times.length - 1] - first;
+        long elapsed = (long) ((clock.getAsLong() - startMillis) * speed);
+        if (loop && span > 0) {
+            // The last recording is held for an average gap before starting over
+            elapsed %= span + span / (times.length - 1);
+        }
+        int index = 0;
+        while (index + 1 < times.length && times[index + 1] - first <= elapsed) {
+            index++;
+        }
+        return recording.files()[index];
+    }
+
+    private Recording scan(String name) {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(file -> {
+                Matcher matcher = RECORDING.matcher(file.getFileName().toString());
+                return matcher.matches() && name.equals(matcher.group(1) + matcher.group(3));
+            }).sorted().forEach(files::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long[] times = new long[files.size()];
+        for (int i = 0; i < times.length; i++) {
+            Matcher matcher = RECORDING.matcher(files.get(i).getFileName().toString());
+            matcher.matches();
+            times[i] = Long.parseLong(matcher.group(2));
+        }
+        if (!files.isEmpty()) {
+            System.out.println("Replaying " + files.size() + " recordings of " + name);
+        }
+        return new Recording(times, files.toArray(Path[]::new));
+    }
+
+    private final class ReplayRequest extends AbstractClientHttpRequest {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        ReplayRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            String path = uri.getPath();
+            Path file = resolve(path.substring(path.lastIndexOf('/') + 1));
+            return new ReplayResponse(file);
+        }
+    }
+
+    private static final class ReplayResponse implements ClientHttpResponse {
+
+        private final Path file;
+        private final HttpHeaders headers = new HttpHeaders();
+        private InputStream body;
+
+        ReplayResponse(Path file) throws IOException {
+            this.file = file;
+            if (file != null) {
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                headers.setContentLength(Files.size(file));
+            }
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return file != null ? HttpStatus.OK : HttpStatus.NOT_FOUND;
+        }
+
+        @Override
+        public String getStatusText() {
+            return file != null ? "OK" : "Not Found";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = file != null ? Files.newInputStream(file) : InputStream.nullInputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (body != null) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                // Nothing left to read anyway
+            }
+        }
+    }
+}
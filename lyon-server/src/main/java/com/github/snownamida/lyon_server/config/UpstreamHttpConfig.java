@@ -0,0 +1,45 @@
+package com.github.snownamida.lyon_server.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+// Every RestTemplate built from the application's RestTemplateBuilder shares one JDK HttpClient: connections
+// to data.grandlyon.com are kept alive between refreshes and multiplexed over HTTP/2, and responses are
+// requested gzipped, which matters for the multi-megabyte GeoJSON layers and passages. The replay profile
+// answers from recorded files instead, see ReplayConfig.
+// Requests run on virtual threads and may wait for these downloads, so code that waits on one holds a
+// ReentrantLock rather than a synchronized monitor, which would pin the virtual thread to its carrier.
+@Configuration
+@Profile("!replay")
+public class UpstreamHttpConfig {
+
+    @Bean
+    public HttpClient upstreamHttpClient(@Value("${grandlyon.upstream.connect-timeout-ms:5000}") long connectTimeoutMs) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    @Bean
+    public RestTemplateCustomizer upstreamRequestFactory(HttpClient upstreamHttpClient,
+            @Value("${grandlyon.upstream.read-timeout-ms:20000}") long readTimeoutMs) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(upstreamHttpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        GzipResponseInterceptor gzip = new GzipResponseInterceptor();
+        return restTemplate -> {
+            restTemplate.setRequestFactory(requestFactory);
+            restTemplate.getInterceptors().add(gzip);
+        };
+    }
+}
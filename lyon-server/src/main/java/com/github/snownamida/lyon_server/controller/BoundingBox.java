@@ -0,0 +1,28 @@
+package com.github.snownamida.lyon_server.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+// bbox query parameter in GeoJSON order: minLon,minLat,maxLon,maxLat
+record BoundingBox(double minLon, double minLat, double maxLon, double maxLat) {
+
+    static BoundingBox parse(List<Double> values) {
+        if (values.size() != 4 || !isLongitude(values.get(0)) || !isLatitude(values.get(1))
+                || !isLongitude(values.get(2)) || !isLatitude(values.get(3))
+                || values.get(0) > values.get(2) || values.get(1) > values.get(3)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "bbox must be minLon,minLat,maxLon,maxLat");
+        }
+        return new BoundingBox(values.get(0), values.get(1), values.get(2), values.get(3));
+    }
+
+    // Written so NaN fails too
+    static boolean isLatitude(double value) {
+        return value >= -90 && value <= 90;
+    }
+
+    static boolean isLongitude(double value) {
+        return value >= -180 && value <= 180;
+    }
+}
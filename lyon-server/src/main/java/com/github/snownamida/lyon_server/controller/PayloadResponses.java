@@ -0,0 +1,101 @@
+package com.github.snownamida.lyon_server.controller;
+
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.FilePayload;
+import com.github.snownamida.lyon_server.model.Payload;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Serves pre-encoded payloads. Spring answers If-None-Match with a 304 on its own once the ETag is set,
+// and Tomcat leaves responses alone when Content-Encoding is already present.
+final class PayloadResponses {
+
+    // Tomcat's sendfile hand-off, the same one its DefaultServlet uses for static files
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private PayloadResponses() {
+    }
+
+    static ResponseEntity<byte[]> of(EncodedPayload payload, String acceptEncoding) {
+        return of(payload, MediaType.APPLICATION_JSON, acceptEncoding, ResponseEntity.ok());
+    }
+
+    static ResponseEntity<byte[]> of(EncodedPayload payload, MediaType contentType, String acceptEncoding,
+            ResponseEntity.BodyBuilder response) {
+        // Added rather than set, so callers can vary on more headers
+        response.contentType(contentType).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(acceptEncoding)) {
+            return response.eTag(payload.gzipEtag())
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(payload.gzip());
+        }
+        return response.eTag(payload.identityEtag()).body(payload.body());
+    }
+
+    static ResponseEntity<?> of(Payload payload, String acceptEncoding, ServletWebRequest request) {
+        return switch (payload) {
+            case EncodedPayload encoded -> of(encoded, acceptEncoding);
+            case FilePayload file -> of(file, acceptEncoding, request);
+        };
+    }
+
+    // File payloads go out through sendfile when the connector supports it, so the bytes never
+    // reach the heap; otherwise they are streamed from disk
+    static ResponseEntity<?> of(FilePayload payload, String acceptEncoding, ServletWebRequest webRequest) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? payload.gzipEtag() : payload.identityEtag();
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
+        Path file = gzip ? payload.gzip() : payload.body();
+        long length;
+        try {
+            length = Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .eTag(etag)
+                .contentLength(length);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        HttpServletRequest request = webRequest.getRequest();
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, length);
+            return response.build();
+        }
+        return response.body(new FileSystemResource(file));
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+}
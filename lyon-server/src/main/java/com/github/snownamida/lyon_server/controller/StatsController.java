@@ -0,0 +1,25 @@
+package com.github.snownamida.lyon_server.controller;
+
+import com.github.snownamida.lyon_server.service.VehicleStatsService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class StatsController {
+
+    private final VehicleStatsService vehicleStatsService;
+
+    public StatsController(VehicleStatsService vehicleStatsService) {
+        this.vehicleStatsService = vehicleStatsService;
+    }
+
+    // Vehicle counts and delays per line and direction, without the vehicles themselves
+    @GetMapping("/api/stats")
+    public ResponseEntity<byte[]> getStats(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return PayloadResponses.of(vehicleStatsService.getStatsPayload(), acceptEncoding);
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.snownamida.lyon_server.controller;
+
+import com.github.snownamida.lyon_server.model.StopCollection;
+import com.github.snownamida.lyon_server.service.SpatialIndexService;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/stops")
+public class StopController {
+
+    private static final double MAX_RADIUS_M = 5000;
+
+    private final SpatialIndexService spatialIndexService;
+
+    public StopController(SpatialIndexService spatialIndexService) {
+        this.spatialIndexService = spatialIndexService;
+    }
+
+    // ?near=lat,lon&radius=meters
+    @GetMapping(params = "near")
+    public StopCollection getStopsNear(@RequestParam List<Double> near,
+            @RequestParam(defaultValue = "500") double radius) {
+        if (near.size() != 2 || !BoundingBox.isLatitude(near.get(0)) || !BoundingBox.isLongitude(near.get(1))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "near must be lat,lon");
+        }
+        if (radius <= 0 || radius > MAX_RADIUS_M) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "radius must be in (0, " + MAX_RADIUS_M + "]");
+        }
+        return spatialIndexService.getStopsNear(near.get(0), near.get(1), radius);
+    }
+
+    // ?bbox=minLon,minLat,maxLon,maxLat
+    @GetMapping(params = { "bbox", "!near" })
+    public StopCollection getStopsWithin(@RequestParam List<Double> bbox) {
+        BoundingBox box = BoundingBox.parse(bbox);
+        return spatialIndexService.getStopsWithin(box.minLat(), box.minLon(), box.maxLat(), box.maxLon());
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.snownamida.lyon_server.controller;
+
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.service.VectorTileService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/tiles")
+public class TileController {
+
+    private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+
+    private final VectorTileService vectorTileService;
+
+    public TileController(VectorTileService vectorTileService) {
+        this.vectorTileService = vectorTileService;
+    }
+
+    @GetMapping("/{layer}/{z}/{x}/{y}.mvt")
+    public ResponseEntity<byte[]> getTile(@PathVariable String layer, @PathVariable int z, @PathVariable int x,
+            @PathVariable int y,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        if (z < 0 || z > VectorTileService.MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            return ResponseEntity.badRequest().build();
+        }
+        EncodedPayload tile = vectorTileService.getTile(layer, z, x, y);
+        if (tile == null) {
+            return ResponseEntity.notFound().build();
+        }
+        // Line geometry changes a few times a year, the ETag covers the rare refresh
+        return PayloadResponses.of(tile, MVT, acceptEncoding,
+                ResponseEntity.ok().cacheControl(CacheControl.maxAge(1, TimeUnit.HOURS)));
+    }
+}
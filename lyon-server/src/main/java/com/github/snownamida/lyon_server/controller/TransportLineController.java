@@ -1,11 +1,15 @@
 package com.github.snownamida.lyon_server.controller;
 
 import com.github.snownamida.lyon_server.service.TransportLineService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
 @RestController
 @RequestMapping("/api/lines")
@@ -18,7 +22,9 @@ public class TransportLineController {
     }
 
     @GetMapping(value = "/{type}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public TransportLineService.LineData getLines(@PathVariable String type) {
-        return transportLineService.getCachedLineData(type);
+    public ResponseEntity<?> getLines(@PathVariable String type,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            ServletWebRequest request) {
+        return PayloadResponses.of(transportLineService.getLinePayload(type), acceptEncoding, request);
     }
 }
@@ -1,33 +1,127 @@
 package com.github.snownamida.lyon_server.controller;
 
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.github.snownamida.lyon_server.model.EstimatedPositions;
 import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehicleDelta;
+import com.github.snownamida.lyon_server.model.VehicleHistory;
 import com.github.snownamida.lyon_server.model.Passage;
+import com.github.snownamida.lyon_server.service.DeadReckoningService;
 import com.github.snownamida.lyon_server.service.GrandLyonService;
+import com.github.snownamida.lyon_server.service.SpatialIndexService;
+import com.github.snownamida.lyon_server.service.VehicleHistoryService;
+import com.github.snownamida.lyon_server.service.VehiclePayloadService;
+import com.github.snownamida.lyon_server.service.VehicleStreamService;
+import com.github.snownamida.lyon_server.service.VehicleWireFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/vehicles")
 public class VehicleController {
 
+    private static final Duration MAX_ESTIMATE_OFFSET = Duration.ofDays(1);
+
     private final GrandLyonService grandLyonService;
+    private final VehiclePayloadService vehiclePayloadService;
+    private final VehicleStreamService vehicleStreamService;
+    private final SpatialIndexService spatialIndexService;
+    private final VehicleHistoryService vehicleHistoryService;
+    private final DeadReckoningService deadReckoningService;
 
-    public VehicleController(GrandLyonService grandLyonService) {
+    public VehicleController(GrandLyonService grandLyonService, VehiclePayloadService vehiclePayloadService,
+            VehicleStreamService vehicleStreamService, SpatialIndexService spatialIndexService,
+            VehicleHistoryService vehicleHistoryService, DeadReckoningService deadReckoningService) {
         this.grandLyonService = grandLyonService;
+        this.vehiclePayloadService = vehiclePayloadService;
+        this.vehicleStreamService = vehicleStreamService;
+        this.spatialIndexService = spatialIndexService;
+        this.vehicleHistoryService = vehicleHistoryService;
+        this.deadReckoningService = deadReckoningService;
     }
 
+    // JSON, or VehicleWireFormat for clients asking for it in Accept
     @GetMapping
-    public VehicleData getVehicles() {
-        return grandLyonService.getVehiclePositions();
+    public ResponseEntity<byte[]> getVehicles(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+        if (VehicleWireFormat.isAccepted(accept)) {
+            return PayloadResponses.of(vehiclePayloadService.getBinarySnapshotPayload(), VehicleWireFormat.MEDIA_TYPE,
+                    acceptEncoding, response);
+        }
+        return PayloadResponses.of(vehiclePayloadService.getSnapshotPayload(), MediaType.APPLICATION_JSON,
+                acceptEncoding, response);
+    }
+
+    // ?bbox=minLon,minLat,maxLon,maxLat
+    @GetMapping(params = { "bbox", "!since" })
+    public VehicleData getVehiclesWithin(@RequestParam List<Double> bbox) {
+        BoundingBox box = BoundingBox.parse(bbox);
+        return spatialIndexService.getVehiclesWithin(box.minLat(), box.minLon(), box.maxLat(), box.maxLon());
+    }
+
+    @GetMapping(params = "since")
+    public VehicleDelta getVehicleChanges(@RequestParam long since) {
+        return grandLyonService.getVehicleChanges(since);
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamVehicles() {
+        return vehicleStreamService.subscribe();
+    }
+
+    // Positions extrapolated along each vehicle's line to ?at=, by default now. Estimates only reach a few
+    // seconds past the last fix, so anything further than a day away is a client error.
+    @GetMapping("/estimated")
+    public EstimatedPositions getEstimatedPositions(@RequestParam(required = false) Instant at) {
+        Instant now = Instant.now();
+        if (at != null && Duration.between(now, at).abs().compareTo(MAX_ESTIMATE_OFFSET) > 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "at must be within a day of now");
+        }
+        return deadReckoningService.getEstimates(at != null ? at : now);
+    }
+
+    // A full set of estimates, then every tick the vehicles whose estimate changed and those removed
+    @GetMapping(value = "/estimated/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEstimatedPositions() {
+        return deadReckoningService.subscribe();
+    }
+
+    // from and to are ISO-8601 instants, by default the whole retained history
+    @GetMapping("/{id}/history")
+    public ResponseEntity<VehicleHistory> getHistory(@PathVariable String id,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to) {
+        VehicleHistory history = vehicleHistoryService.getHistory(id, from != null ? from : Instant.EPOCH,
+                to != null ? to : Instant.now());
+        return history != null ? ResponseEntity.ok(history) : ResponseEntity.notFound().build();
+    }
+
+    // ?at=2025-12-29T18:40:00Z, the vehicles as they were at that instant
+    @GetMapping("/replay")
+    public ResponseEntity<VehicleData> replay(@RequestParam Instant at) {
+        VehicleData data = vehicleHistoryService.replay(at);
+        return data != null ? ResponseEntity.ok(data) : ResponseEntity.notFound().build();
     }
 
+    // stopId accepts several comma separated ids, e.g. ?stopId=1,2,3
     @GetMapping("/passages")
-    public List<Passage> getPassages(@RequestParam(required = false) String stopId) {
+    public List<Passage> getPassages(@RequestParam(required = false) List<String> stopId) {
         return grandLyonService.getPassages(stopId);
     }
 }
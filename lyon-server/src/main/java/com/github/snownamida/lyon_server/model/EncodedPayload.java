@@ -0,0 +1,24 @@
+package com.github.snownamida.lyon_server.model;
+
+import org.springframework.util.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+// A response body serialized and compressed once, then served as-is to every client.
+// The ETag is derived from the uncompressed body; the gzip variant gets its own suffix
+// since strong validators must differ between encodings.
+public record EncodedPayload(byte[] body, byte[] gzip, String etag) implements Payload {
+
+    public static EncodedPayload of(byte[] body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(512, body.length / 8));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new EncodedPayload(body, compressed.toByteArray(), DigestUtils.md5DigestAsHex(body));
+    }
+}
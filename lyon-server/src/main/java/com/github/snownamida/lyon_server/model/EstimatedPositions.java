@@ -0,0 +1,13 @@
+package com.github.snownamida.lyon_server.model;
+
+import java.time.Instant;
+import java.util.List;
+
+// Vehicle positions projected forward from their last fix to the given instant. On the stream after the first
+// event, vehicles only lists those whose estimate changed and removed those gone since the previous one.
+public record EstimatedPositions(Instant at, long sequence, List<Estimate> vehicles, List<String> removed) {
+
+    // onRoute is false when the vehicle couldn't be matched to its line and was projected along its bearing
+    public record Estimate(String vehicleId, double latitude, double longitude, Double bearing, boolean onRoute) {
+    }
+}
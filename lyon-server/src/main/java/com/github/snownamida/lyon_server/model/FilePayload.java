@@ -0,0 +1,7 @@
+package com.github.snownamida.lyon_server.model;
+
+import java.nio.file.Path;
+
+// Same as EncodedPayload, but both variants live in files so large layers stay off the heap
+public record FilePayload(Path body, Path gzip, String etag) implements Payload {
+}
@@ -0,0 +1,15 @@
+package com.github.snownamida.lyon_server.model;
+
+// A response body prepared ahead of time, either held in memory or stored on disk
+public sealed interface Payload permits EncodedPayload, FilePayload {
+
+    String etag();
+
+    default String identityEtag() {
+        return "\"" + etag() + "\"";
+    }
+
+    default String gzipEtag() {
+        return "\"" + etag() + "-gzip\"";
+    }
+}
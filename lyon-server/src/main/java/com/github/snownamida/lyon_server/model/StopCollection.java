@@ -0,0 +1,11 @@
+package com.github.snownamida.lyon_server.model;
+
+import java.util.List;
+
+// GeoJSON FeatureCollection of stops, as served by the stops layer
+public record StopCollection(String type, List<StopFeature> features) {
+
+    public static StopCollection of(List<StopFeature> features) {
+        return new StopCollection("FeatureCollection", features);
+    }
+}
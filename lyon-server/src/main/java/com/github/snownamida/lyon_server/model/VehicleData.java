@@ -3,9 +3,19 @@ package com.github.snownamida.lyon_server.model;
 import java.time.Instant;
 import java.util.List;
 
+// stale is set when upstream failed and these are the last good positions, fetched ageMs before publication
 public record VehicleData(
                 List<VehiclePosition> vehicles,
                 Instant apiResponseTimestamp,
                 Instant lastFetchTime,
-                String apiStatus) {
+                String apiStatus,
+                long sequence,
+                boolean stale,
+                long ageMs) {
+
+        // Fresh positions, straight from upstream
+        public VehicleData(List<VehiclePosition> vehicles, Instant apiResponseTimestamp, Instant lastFetchTime,
+                        String apiStatus, long sequence) {
+                this(vehicles, apiResponseTimestamp, lastFetchTime, apiStatus, sequence, false, 0);
+        }
 }
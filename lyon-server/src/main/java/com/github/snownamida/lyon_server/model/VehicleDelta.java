@@ -0,0 +1,53 @@
+package com.github.snownamida.lyon_server.model;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Changes between two snapshots, keyed by vehicleId.
+// When the base sequence is no longer known, reset is true and every vehicle is listed as added.
+public record VehicleDelta(
+        long sequence,
+        long since,
+        boolean reset,
+        List<VehiclePosition> added,
+        List<VehiclePosition> changed,
+        List<String> removed,
+        Instant apiResponseTimestamp,
+        Instant lastFetchTime,
+        String apiStatus,
+        boolean stale,
+        long ageMs) {
+
+    public static VehicleDelta between(VehicleData base, VehicleData current) {
+        Map<String, VehiclePosition> previous = new HashMap<>(base.vehicles().size() * 2);
+        for (VehiclePosition position : base.vehicles()) {
+            previous.put(position.vehicleId(), position);
+        }
+
+        List<VehiclePosition> added = new ArrayList<>();
+        List<VehiclePosition> changed = new ArrayList<>();
+        for (VehiclePosition position : current.vehicles()) {
+            VehiclePosition old = previous.remove(position.vehicleId());
+            if (old == null) {
+                added.add(position);
+            } else if (!old.equals(position)) {
+                changed.add(position);
+            }
+        }
+        // Whatever is left was not in the current snapshot
+        List<String> removed = new ArrayList<>(previous.keySet());
+
+        return new VehicleDelta(current.sequence(), base.sequence(), false, added, changed, removed,
+                current.apiResponseTimestamp(), current.lastFetchTime(), current.apiStatus(), current.stale(),
+                current.ageMs());
+    }
+
+    public static VehicleDelta full(VehicleData current, long since) {
+        return new VehicleDelta(current.sequence(), since, true, current.vehicles(), List.of(), List.of(),
+                current.apiResponseTimestamp(), current.lastFetchTime(), current.apiStatus(), current.stale(),
+                current.ageMs());
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.snownamida.lyon_server.model;
+
+import java.time.Instant;
+import java.util.List;
+
+// Positions recorded for one vehicle, oldest first. A point is only recorded when something changed.
+public record VehicleHistory(String vehicleId, List<Point> points) {
+
+    public record Point(
+            Instant time,
+            double latitude,
+            double longitude,
+            Double bearing,
+            String delay,
+            String lineId,
+            String direction,
+            String destinationName,
+            String vehicleStatus) {
+    }
+}
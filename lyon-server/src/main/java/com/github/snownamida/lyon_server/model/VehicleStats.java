@@ -0,0 +1,30 @@
+package com.github.snownamida.lyon_server.model;
+
+import java.time.Instant;
+import java.util.List;
+
+// Fleet figures for one snapshot, overall and per line and direction. Delays are in seconds, negative when
+// early; the percentiles only cover vehicles reporting a delay and are null when none does. A vehicle is
+// stale when its validUntilTime had already passed when the snapshot was published.
+public record VehicleStats(
+        long sequence,
+        Instant lastFetchTime,
+        String apiStatus,
+        boolean stale,
+        long ageMs,
+        Group total,
+        List<Group> lines) {
+
+    public record Group(
+            String lineId,
+            String direction,
+            int vehicles,
+            int staleVehicles,
+            int onTime,
+            int late,
+            int early,
+            Long delayP50,
+            Long delayP90,
+            Long delayMax) {
+    }
+}
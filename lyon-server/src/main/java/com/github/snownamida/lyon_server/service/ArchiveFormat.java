@@ -0,0 +1,85 @@
+package com.github.snownamida.lyon_server.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Layout shared by SnapshotArchiveWriter and SnapshotArchiveReader.
+//
+// A segment file is one raw deflate stream, flushed after every frame, holding the snapshots of one period.
+// Frames only carry what changed since the previous frame of the same segment, and strings are written once
+// per segment, so each segment decodes on its own. A frame is, in varints:
+//   fetch time delta (ms), api timestamp offset (ms, 0 = none), sequence delta,
+//   new strings (count, then length + UTF-8 bytes each),
+//   removed vehicles (count, then index deltas),
+//   changed vehicles (count, then index delta, field mask and the masked fields).
+// Coordinates are micro-degrees and bearings tenths of a degree, both as deltas from the vehicle's previous
+// value. Strings are dictionary indexes + 1 and instants epoch milliseconds, with 0 standing for null.
+final class ArchiveFormat {
+
+    static final int LATITUDE = 1;
+    static final int LONGITUDE = 1 << 1;
+    static final int BEARING = 1 << 2;
+    static final int DELAY = 1 << 3;
+    static final int JOURNEY = 1 << 4;
+    static final int RECORDED_AT = 1 << 5;
+    static final int VALID_UNTIL = 1 << 6;
+    static final int ALL = (1 << 7) - 1;
+
+    // Line, direction, destination, data source and status, as string codes
+    static final int JOURNEY_FIELDS = 5;
+
+    static final double MICRO_DEGREES = 1e6;
+
+    private static final Pattern SEGMENT = Pattern.compile("vehicles-(\\d{13})\\.seg");
+
+    private ArchiveFormat() {
+    }
+
+    // Zero padded so segments sort by name
+    static String segmentName(long startMillis) {
+        return String.format("vehicles-%013d.seg", startMillis);
+    }
+
+    // Returns -1 for files that are not segments
+    static long segmentStart(Path file) {
+        Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long readSignedVarLong(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        return Math.toIntExact(readVarLong(in));
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.snownamida.lyon_server.service;
+
+import java.util.function.LongSupplier;
+
+// Guards one upstream feed. After failureThreshold consecutive failures the circuit opens and calls are
+// skipped until the backoff runs out; a single trial call is then let through. Each failed trial doubles the
+// backoff, up to maxBackoffMs, and a success closes the circuit again.
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String feed;
+    private final int failureThreshold;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long backoffMs;
+    private long openUntil;
+
+    CircuitBreaker(String feed, int failureThreshold, long initialBackoffMs, long maxBackoffMs, LongSupplier clock) {
+        this.feed = feed;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = Math.max(initialBackoffMs, maxBackoffMs);
+        this.clock = clock;
+    }
+
+    // False while open, and while a trial call is in flight; callers then serve what they already have
+    synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && clock.getAsLong() >= openUntil) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            System.out.println(feed + " upstream is back, closing its circuit");
+        }
+        state = State.CLOSED;
+        failures = 0;
+        backoffMs = 0;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            backoffMs = backoffMs == 0 ? initialBackoffMs : Math.min(maxBackoffMs, backoffMs * 2);
+            openUntil = clock.getAsLong() + backoffMs;
+            state = State.OPEN;
+            System.err.println(feed + " upstream failed " + failures + " times in a row, next try in "
+                    + backoffMs + " ms");
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,359 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EstimatedPositions;
+import com.github.snownamida.lyon_server.model.Payload;
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Moves vehicles between upstream fixes. Each fix is snapped to the vehicle's line and the vehicle is then
+// pushed along that polyline at the speed seen between its last two fixes, for a bounded time. Vehicles that
+// don't match a known line are pushed straight ahead along their bearing instead.
+@Service
+public class DeadReckoningService {
+
+    private static final double EARTH_RADIUS_M = 6_371_000;
+    // Below this, two fixes are GPS noise around a stopped vehicle
+    private static final double MIN_MOVE_M = 3;
+    private static final long GEOMETRY_CHECK_MS = 60_000;
+
+    // The last fix of a vehicle and what was worked out from it, against the given version of the line index.
+    // direction is +1 or -1 along the route, 0 when unknown; heading is only used off route.
+    private record Track(VehiclePosition position, long fixMillis, int geometryVersion, LineGeometry.Route route,
+            double measure, int direction, double speed, double heading) {
+
+        boolean moving(long atMillis, long maxExtrapolationMs) {
+            return speed > 0 && atMillis - fixMillis < maxExtrapolationMs
+                    && (route != null ? direction != 0 : !Double.isNaN(heading));
+        }
+    }
+
+    private record IndexedLayer(String etag, LineGeometry geometry) {
+    }
+
+    private final GrandLyonService grandLyonService;
+    private final TransportLineService transportLineService;
+    private final ObjectMapper objectMapper;
+    private final TaskExecutor taskExecutor;
+    private final List<String> layerTypes;
+    private final double maxOffsetM;
+    private final double maxSpeed;
+    private final long maxExtrapolationMs;
+    private final long maxFixGapMs;
+
+    private final Map<String, IndexedLayer> layers = new ConcurrentHashMap<>();
+    private final AtomicBoolean checkingLayers = new AtomicBoolean();
+    private volatile long lastLayerCheck;
+    private volatile int geometryVersion;
+    private volatile Map<String, Track> tracks = Map.of();
+    private volatile long sequence;
+    private final SseBroadcaster subscribers;
+    // What the previous tick was worked out from, only touched by ticks
+    private Map<String, Track> ticked = Map.of();
+    private Set<String> tickedMoving = Set.of();
+
+    public DeadReckoningService(GrandLyonService grandLyonService,
+            TransportLineService transportLineService,
+            ObjectMapper objectMapper,
+            @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+            @Value("${grandlyon.interpolation.layers:metro,tram,rhonexpress}") List<String> layerTypes,
+            @Value("${grandlyon.interpolation.max-offset-m:60}") double maxOffsetM,
+            @Value("${grandlyon.interpolation.max-speed-mps:30}") double maxSpeed,
+            @Value("${grandlyon.interpolation.max-extrapolation-ms:30000}") long maxExtrapolationMs,
+            @Value("${grandlyon.interpolation.max-fix-gap-ms:120000}") long maxFixGapMs,
+            @Value("${grandlyon.stream.timeout-ms:300000}") long streamTimeoutMs,
+            @Value("${grandlyon.stream.send-timeout-ms:10000}") long sendTimeoutMs,
+            MeterRegistry meterRegistry) {
+        this.grandLyonService = grandLyonService;
+        this.transportLineService = transportLineService;
+        this.objectMapper = objectMapper;
+        this.taskExecutor = taskExecutor;
+        this.layerTypes = layerTypes;
+        this.maxOffsetM = maxOffsetM;
+        this.maxSpeed = maxSpeed;
+        this.maxExtrapolationMs = maxExtrapolationMs;
+        this.maxFixGapMs = maxFixGapMs;
+        this.subscribers = new SseBroadcaster(streamTimeoutMs, sendTimeoutMs);
+
+        Gauge.builder("grandlyon.interpolation.snapped", this,
+                service -> service.tracks.values().stream().filter(track -> track.route() != null).count())
+                .description("Vehicles whose last fix was matched to their line")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.interpolation.subscribers", subscribers, SseBroadcaster::size)
+                .register(meterRegistry);
+    }
+
+    public EstimatedPositions getEstimates(Instant at) {
+        grandLyonService.markActivity();
+        return estimate(at.toEpochMilli());
+    }
+
+    public SseEmitter subscribe() {
+        // Everyone starts from a full set, the ticks after that only carry what changed
+        return subscribers.subscribe("estimate", serialize(estimate(System.currentTimeMillis())));
+    }
+
+    @Scheduled(fixedRateString = "${grandlyon.interpolation.tick-ms:1000}")
+    public void tick() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        grandLyonService.markActivity();
+        String payload = serialize(changes(System.currentTimeMillis()));
+        if (payload == null) {
+            return;
+        }
+        subscribers.broadcast("estimate", payload);
+    }
+
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        long now = System.currentTimeMillis();
+        if (!layerTypes.isEmpty() && now - lastLayerCheck > GEOMETRY_CHECK_MS
+                && checkingLayers.compareAndSet(false, true)) {
+            lastLayerCheck = now;
+            // Loading a layer can mean a large download, which must not hold up the refresher
+            taskExecutor.execute(() -> {
+                try {
+                    refreshGeometry();
+                } finally {
+                    checkingLayers.set(false);
+                }
+            });
+        }
+        track(event.snapshot());
+    }
+
+    // Rebuilds the index of layers whose version changed; a no-op for the others
+    private void refreshGeometry() {
+        for (String type : layerTypes) {
+            if (!transportLineService.hasLayer(type)) {
+                continue;
+            }
+            try {
+                Payload payload = transportLineService.getLinePayload(type);
+                IndexedLayer current = layers.get(type);
+                if (current == null || !current.etag().equals(payload.etag())) {
+                    useGeometry(type, payload.etag(),
+                            LineGeometry.parse(objectMapper, transportLineService.getCachedLineData(type)));
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to index " + type + " lines for interpolation: " + e.getMessage());
+            }
+        }
+    }
+
+    void useGeometry(String type, String etag, LineGeometry geometry) {
+        layers.put(type, new IndexedLayer(etag, geometry));
+        geometryVersion++;
+        System.out.println("Indexed " + geometry.lines() + " " + type + " lines for interpolation");
+    }
+
+    void track(VehicleData snapshot) {
+        // Failed refreshes carry no positions, the previous fixes stay the best guess
+        if (!"OK".equals(snapshot.apiStatus()) || snapshot.lastFetchTime() == null) {
+            return;
+        }
+        long fetchMillis = snapshot.lastFetchTime().toEpochMilli();
+        int version = geometryVersion;
+        Map<String, Track> previous = tracks;
+        Map<String, Track> next = new HashMap<>(snapshot.vehicles().size() * 2);
+        for (VehiclePosition position : snapshot.vehicles()) {
+            Track old = previous.get(position.vehicleId());
+            long fixMillis = position.recordedAtTime() != null ? position.recordedAtTime().toEpochMilli() : fetchMillis;
+            if (old != null && old.fixMillis() == fixMillis && old.geometryVersion() == version
+                    && old.position().latitude() == position.latitude()
+                    && old.position().longitude() == position.longitude()) {
+                // Same fix seen again, keep extrapolating from it
+                next.put(position.vehicleId(), new Track(position, fixMillis, version, old.route(), old.measure(),
+                        old.direction(), old.speed(), old.heading()));
+            } else {
+                // A new fix, or lines indexed since the last one
+                next.put(position.vehicleId(), fix(old, position, fixMillis, version));
+            }
+        }
+        tracks = next;
+        sequence = snapshot.sequence();
+    }
+
+    private Track fix(Track old, VehiclePosition position, long fixMillis, int version) {
+        double seconds = old == null ? 0 : (fixMillis - old.fixMillis()) / 1000.0;
+        boolean consecutive = seconds > 0 && seconds * 1000 <= maxFixGapMs;
+        LineGeometry.Snap snap = snap(position);
+
+        if (snap != null) {
+            int direction = 0;
+            double speed = 0;
+            if (consecutive && old.route() == snap.route()) {
+                double moved = snap.measure() - old.measure();
+                if (Math.abs(moved) >= MIN_MOVE_M) {
+                    direction = moved > 0 ? 1 : -1;
+                    speed = smooth(old.speed(), Math.abs(moved) / seconds);
+                } else {
+                    direction = old.direction();
+                }
+            } else if (old != null) {
+                // New route (other branch or first match), the speed still holds but not the direction
+                speed = old.speed();
+            }
+            if (direction == 0 && position.bearing() != null) {
+                direction = angle(position.bearing(), snap.bearing()) <= 90 ? 1 : -1;
+            }
+            return new Track(position, fixMillis, version, snap.route(), snap.measure(), direction, speed,
+                    Double.NaN);
+        }
+
+        double heading = position.bearing() != null ? position.bearing() : Double.NaN;
+        double speed = 0;
+        if (consecutive) {
+            VehiclePosition last = old.position();
+            double moved = GridIndex.distanceMeters(last.latitude(), last.longitude(), position.latitude(),
+                    position.longitude());
+            if (moved >= MIN_MOVE_M) {
+                speed = smooth(old.speed(), moved / seconds);
+                if (Double.isNaN(heading)) {
+                    heading = bearing(last.latitude(), last.longitude(), position.latitude(), position.longitude());
+                }
+            }
+        }
+        return new Track(position, fixMillis, version, null, 0, 0, speed, heading);
+    }
+
+    private LineGeometry.Snap snap(VehiclePosition position) {
+        String code = lineCode(position.lineId());
+        if (code == null) {
+            return null;
+        }
+        LineGeometry.Snap best = null;
+        for (IndexedLayer layer : layers.values()) {
+            LineGeometry.Snap snap = layer.geometry().snap(code, position.latitude(), position.longitude(), maxOffsetM);
+            if (snap != null && (best == null || snap.offset() < best.offset())) {
+                best = snap;
+            }
+        }
+        return best;
+    }
+
+    // An implausible jump (bad fix, detour) stops the vehicle rather than sending it flying
+    private double smooth(double previous, double observed) {
+        if (observed > maxSpeed) {
+            return 0;
+        }
+        return previous > 0 ? (previous + observed) / 2 : observed;
+    }
+
+    EstimatedPositions estimate(long atMillis) {
+        Map<String, Track> current = tracks;
+        List<EstimatedPositions.Estimate> estimates = new ArrayList<>(current.size());
+        for (Track track : current.values()) {
+            estimates.add(estimate(track, atMillis));
+        }
+        return new EstimatedPositions(Instant.ofEpochMilli(atMillis), sequence, estimates, List.of());
+    }
+
+    // The estimates that differ from what the previous call sent: vehicles in motion, those with a new fix
+    // (including new vehicles and rejected jumps), and those that stopped since, at their final position
+    EstimatedPositions changes(long atMillis) {
+        Map<String, Track> current = tracks;
+        List<EstimatedPositions.Estimate> estimates = new ArrayList<>();
+        Set<String> moving = new HashSet<>();
+        for (Map.Entry<String, Track> entry : current.entrySet()) {
+            String vehicleId = entry.getKey();
+            Track track = entry.getValue();
+            if (track.moving(atMillis, maxExtrapolationMs)) {
+                moving.add(vehicleId);
+                estimates.add(estimate(track, atMillis));
+            } else if (tickedMoving.contains(vehicleId) || !track.equals(ticked.get(vehicleId))) {
+                estimates.add(estimate(track, atMillis));
+            }
+        }
+        List<String> removed = ticked.keySet().stream().filter(vehicleId -> !current.containsKey(vehicleId)).toList();
+        ticked = current;
+        tickedMoving = moving;
+        return new EstimatedPositions(Instant.ofEpochMilli(atMillis), sequence, estimates, removed);
+    }
+
+    private EstimatedPositions.Estimate estimate(Track track, long atMillis) {
+        VehiclePosition position = track.position();
+        double seconds = Math.max(0, Math.min(maxExtrapolationMs, atMillis - track.fixMillis())) / 1000.0;
+        double distance = track.speed() * seconds;
+
+        if (track.route() != null) {
+            double[] point = track.route().pointAt(track.measure() + track.direction() * distance);
+            Double bearing = track.direction() == 0 ? position.bearing()
+                    : Double.valueOf(track.direction() > 0 ? point[2] : (point[2] + 180) % 360);
+            return estimate(position.vehicleId(), point[0], point[1], bearing, true);
+        }
+        if (distance == 0 || Double.isNaN(track.heading())) {
+            return estimate(position.vehicleId(), position.latitude(), position.longitude(), position.bearing(),
+                    false);
+        }
+        double heading = Math.toRadians(track.heading());
+        double latitude = position.latitude() + Math.toDegrees(distance * Math.cos(heading) / EARTH_RADIUS_M);
+        double longitude = position.longitude() + Math.toDegrees(distance * Math.sin(heading)
+                / (EARTH_RADIUS_M * Math.cos(Math.toRadians(position.latitude()))));
+        return estimate(position.vehicleId(), latitude, longitude, track.heading(), false);
+    }
+
+    // Rounded to ~10 cm and a tenth of a degree, which keeps the streamed JSON short
+    private static EstimatedPositions.Estimate estimate(String vehicleId, double latitude, double longitude,
+            Double bearing, boolean onRoute) {
+        return new EstimatedPositions.Estimate(vehicleId, Math.round(latitude * 1e6) / 1e6,
+                Math.round(longitude * 1e6) / 1e6, bearing == null ? null : Math.round(bearing * 10) / 10.0, onRoute);
+    }
+
+    // "ActIV:Line::T4:SYTRAL" -> "T4", which is how the line layers name it
+    static String lineCode(String lineId) {
+        if (lineId == null) {
+            return null;
+        }
+        int start = lineId.indexOf("Line::");
+        if (start < 0) {
+            return lineId;
+        }
+        start += "Line::".length();
+        int end = lineId.indexOf(':', start);
+        return end < 0 ? lineId.substring(start) : lineId.substring(start, end);
+    }
+
+    // Smallest angle between two bearings, in degrees
+    private static double angle(double a, double b) {
+        double difference = Math.abs(a - b) % 360;
+        return difference > 180 ? 360 - difference : difference;
+    }
+
+    private static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        double bearing = Math.toDegrees(Math.atan2(x, y));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    private String serialize(Object message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (Exception e) {
+            System.err.println("Failed to serialize vehicle estimates: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.github.snownamida.lyon_server.service;
 
-import com.github.snownamida.lyon_server.model.SiriResponse;
 import com.github.snownamida.lyon_server.model.VehiclePosition;
 import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehicleDelta;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
@@ -12,11 +19,9 @@ import java.time.Instant;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.github.snownamida.lyon_server.model.Passage;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 @Service
@@ -25,215 +30,303 @@ public class GrandLyonService {
     private final RestTemplate restTemplate;
     private final String apiUrl;
     private final String passagesUrl;
-    private final ObjectMapper objectMapper;
+    private final PassageReader passageReader;
+    private final SiriReader siriReader;
+    private final long idleTimeoutMs;
+    private final int deltaHistory;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TaskExecutor taskExecutor;
+    private final MeterRegistry meterRegistry;
+    private final Timer passagesLockWait;
+    private final UpstreamResilience resilience;
+    private final CircuitBreaker vehiclesCircuit;
+    private final CircuitBreaker passagesCircuit;
+    private final long maxStaleMs;
 
     public GrandLyonService(@Value("${grandlyon.api.url}") String apiUrl,
             @Value("${grandlyon.api.passages}") String passagesUrl,
             @Value("${grandlyon.api.username}") String username,
             @Value("${grandlyon.api.password}") String password,
-            RestTemplateBuilder builder) {
+            @Value("${grandlyon.api.idle-timeout-ms:60000}") long idleTimeoutMs,
+            @Value("${grandlyon.api.delta-history:20}") int deltaHistory,
+            @Value("${grandlyon.api.max-stale-ms:900000}") long maxStaleMs,
+            RestTemplateBuilder builder,
+            UpstreamResilience resilience,
+            ApplicationEventPublisher eventPublisher,
+            @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+            MeterRegistry meterRegistry) {
         this.apiUrl = apiUrl;
         this.passagesUrl = passagesUrl;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.deltaHistory = Math.max(1, deltaHistory);
+        this.eventPublisher = eventPublisher;
+        this.taskExecutor = taskExecutor;
+        this.meterRegistry = meterRegistry;
+        this.maxStaleMs = maxStaleMs;
+        this.resilience = resilience;
+        this.vehiclesCircuit = resilience.circuitBreaker("vehicles");
+        this.passagesCircuit = resilience.circuitBreaker("passages");
         this.restTemplate = builder
                 .basicAuthentication(username, password)
                 .build();
-        this.objectMapper = new ObjectMapper()
+        ObjectMapper objectMapper = new ObjectMapper()
                 .configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.passageReader = new PassageReader(objectMapper);
+        this.siriReader = new SiriReader(objectMapper.getFactory());
+
+        this.passagesLockWait = Timer.builder("grandlyon.passages.lock.wait")
+                .description("Time passage requests waited for another request's upstream fetch")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.snapshot.age", this,
+                service -> service.lastGoodAgeMs(service.lastGoodSnapshot) / 1000.0)
+                .description("Time since vehicle positions were last fetched successfully")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.count", this, service -> service.snapshot.vehicles().size())
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.activities", this, service -> service.lastActivities)
+                .description("Vehicle activities in the last SIRI response, before deduplication")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.dedup.ratio", this,
+                service -> service.lastActivities == 0 ? 1.0 : (double) service.lastVehicles / service.lastActivities)
+                .description("Vehicles kept per SIRI vehicle activity in the last response")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.passages.count", this, service -> service.cachedPassages.size())
+                .register(meterRegistry);
     }
 
+    private final long startedAt = System.currentTimeMillis();
     private final java.util.concurrent.atomic.AtomicLong lastRequestTime = new java.util.concurrent.atomic.AtomicLong(
             0);
-    private volatile List<VehiclePosition> cachedPositions = Collections.emptyList();
-    private volatile long lastFetchTime = 0;
-    private volatile Instant lastApiTimestamp = null;
-    private volatile String apiStatus = "OK";
-
-    private volatile List<Passage> cachedPassages = Collections.emptyList();
+    // Immutable snapshot published by the refresher, readers never take a lock. Until the first fetch there is
+    // nothing to show, and clients are told so.
+    private volatile VehicleData snapshot = new VehicleData(Collections.emptyList(), null, Instant.ofEpochMilli(0),
+            "STARTING", 0);
+    // Held by whoever refreshes, the scheduler or a request waking the service up
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    // Last few snapshots, oldest first, so clients can ask for changes since a sequence number
+    private volatile List<VehicleData> recentSnapshots = List.of(snapshot);
+    // What failed refreshes fall back to, and the status of the last failure while the circuit is open
+    private volatile VehicleData lastGoodSnapshot = snapshot;
+    private volatile String failureStatus = "API_DOWN";
+
+    // One passages download at a time
+    private final ReentrantLock passagesLock = new ReentrantLock();
+    private volatile PassageIndex cachedPassages = PassageIndex.EMPTY;
     private volatile long lastPassagesFetchTime = 0;
 
+    // Size of the last SIRI response before and after deduplication
+    private volatile int lastActivities;
+    private volatile int lastVehicles;
+
     // Cache valid for 3 seconds as requested
     private static final long CACHE_DURATION_MS = 3000;
 
     public VehicleData getVehiclePositions() {
-        long now = System.currentTimeMillis();
-        lastRequestTime.set(now); // Mark user activity
+        markActivity();
+        return snapshot;
+    }
 
-        synchronized (this) {
-            // If cache is fresh (fetched less than 3s ago), return it
-            if (now - lastFetchTime < CACHE_DURATION_MS) {
-                return new VehicleData(cachedPositions, lastApiTimestamp, Instant.ofEpochMilli(lastFetchTime),
-                        apiStatus);
+    public VehicleDelta getVehicleChanges(long since) {
+        markActivity();
+        List<VehicleData> recent = recentSnapshots;
+        VehicleData current = recent.get(recent.size() - 1);
+        for (VehicleData base : recent) {
+            if (base.sequence() == since) {
+                return VehicleDelta.between(base, current);
             }
+        }
+        return VehicleDelta.full(current, since);
+    }
 
-            // Otherwise, fetch new data
-            fetchDataFromApi();
-            return new VehicleData(cachedPositions, lastApiTimestamp, Instant.ofEpochMilli(lastFetchTime), apiStatus);
+    public void markActivity() {
+        long now = System.currentTimeMillis();
+        long previous = lastRequestTime.getAndSet(now);
+        // First request since startup or since the service went idle: fetch now rather than at the next tick
+        if (idleTimeoutMs > 0 && now - previous > idleTimeoutMs) {
+            taskExecutor.execute(this::refreshVehiclePositions);
         }
     }
 
-    private void fetchDataFromApi() {
+    @Scheduled(fixedDelayString = "${grandlyon.api.refresh-interval-ms:3000}")
+    public void refreshVehiclePositions() {
+        if (!refreshLock.tryLock()) {
+            return;
+        }
         try {
-            SiriResponse response = restTemplate.getForObject(apiUrl, SiriResponse.class);
-
-            if (response == null || response.siri() == null ||
-                    response.siri().serviceDelivery() == null ||
-                    response.siri().serviceDelivery().vehicleMonitoringDelivery() == null) {
-                this.cachedPositions = Collections.emptyList();
-                this.apiStatus = "EMPTY_RESPONSE";
+            // Don't poll the upstream when nobody has looked at the map for a while. What we hold stops being
+            // current, so it is flagged stale for whoever comes back.
+            if (idleTimeoutMs > 0 && System.currentTimeMillis() - lastRequestTime.get() > idleTimeoutMs) {
+                VehicleData current = snapshot;
+                if (current.sequence() > 0 && !current.stale()) {
+                    publishStale(current.apiStatus());
+                }
                 return;
             }
-
-            // Extract API timestamp
-            try {
-                this.lastApiTimestamp = Instant.parse(response.siri().serviceDelivery().responseTimestamp());
-            } catch (Exception ignored) {
+            // While upstream is known to be down, clients keep getting the last positions with a growing age
+            if (!vehiclesCircuit.allowRequest()) {
+                resilience.countSkipped("vehicles");
+                publishStale(failureStatus);
+                return;
             }
+            fetchDataFromApi();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
 
-            List<VehiclePosition> allPositions = response.siri().serviceDelivery().vehicleMonitoringDelivery()
-                    .stream()
-                    .flatMap(delivery -> delivery.vehicleActivity().stream())
-                    .map(this::mapToVehiclePosition)
-                    .collect(Collectors.toList());
-
-            // Robust deduplication logic for any number of duplicates
-            java.util.Map<String, List<VehiclePosition>> grouped = allPositions.stream()
-                    .filter(p -> p.vehicleId() != null)
-                    .collect(Collectors.groupingBy(VehiclePosition::vehicleId));
-
-            List<VehiclePosition> result = new java.util.ArrayList<>();
-
-            for (List<VehiclePosition> positions : grouped.values()) {
-                if (positions.isEmpty())
-                    continue;
-                if (positions.size() == 1) {
-                    result.add(positions.get(0));
-                } else {
-                    // Pick the best candidate
-                    // Priority 1: Has a valid delay (not null)
-                    // Priority 2: Smallest absolute delay (real-time vs scheduled phantom)
-                    VehiclePosition best = positions.stream()
-                            .min(java.util.Comparator
-                                    .comparingInt((VehiclePosition p) -> p.delay() != null ? 0 : 1) // Null delays
-                                                                                                    // last
-                                    .thenComparingLong(p -> {
-                                        if (p.delay() == null)
-                                            return Long.MAX_VALUE;
-                                        try {
-                                            return Math.abs(java.time.Duration.parse(p.delay()).getSeconds());
-                                        } catch (Exception e) {
-                                            return Long.MAX_VALUE;
-                                        }
-                                    }))
-                            .orElse(positions.get(0));
-                    result.add(best);
-                }
+    private void fetchDataFromApi() {
+        VehicleData current = snapshot;
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            SiriReader.Result response = restTemplate.execute(apiUrl, org.springframework.http.HttpMethod.GET, null,
+                    r -> siriReader.read(r.getBody()));
+
+            if (response == null) {
+                outcome = "empty";
+                failed("EMPTY_RESPONSE");
+                return;
             }
 
-            this.cachedPositions = result;
-            this.lastFetchTime = System.currentTimeMillis();
-            this.apiStatus = "OK";
+            Instant apiTimestamp = response.responseTimestamp() != null ? response.responseTimestamp()
+                    : current.apiResponseTimestamp();
+            outcome = "ok";
+            lastActivities = response.activities();
+            lastVehicles = response.vehicles().size();
+            vehiclesCircuit.onSuccess();
+            lastGoodSnapshot = publish(new VehicleData(response.vehicles(), apiTimestamp, Instant.now(), "OK",
+                    current.sequence() + 1));
 
         } catch (org.springframework.web.client.ResourceAccessException e) {
             System.err.println("API Timeout or Connection Refused: " + e.getMessage());
-            this.apiStatus = "API_DOWN";
-            // Return empty list on failure
-            this.cachedPositions = Collections.emptyList();
+            outcome = "api_down";
+            failed("API_DOWN");
         } catch (Exception e) {
             e.printStackTrace();
-            this.apiStatus = "ERROR: " + e.getMessage();
-            this.cachedPositions = Collections.emptyList();
+            failed("ERROR: " + e.getMessage());
+        } finally {
+            sample.stop(upstreamTimer("vehicles", outcome));
         }
     }
 
-    public List<Passage> getPassages(String stopId) {
-        long now = System.currentTimeMillis();
-        // Simple cache check with synchronization handles
-        boolean needsFetch = false;
-        synchronized (this) {
-            if (now - lastPassagesFetchTime > CACHE_DURATION_MS) {
-                needsFetch = true;
-            }
+    private void failed(String status) {
+        vehiclesCircuit.onFailure();
+        failureStatus = status;
+        publishStale(status);
+    }
+
+    // The last good positions instead of an empty map, until they are too old to be useful. Nothing is published
+    // when that changes nothing for clients, who work out the growing age from lastFetchTime.
+    private void publishStale(String status) {
+        VehicleData good = lastGoodSnapshot;
+        VehicleData current = snapshot;
+        long ageMs = lastGoodAgeMs(good);
+        List<VehiclePosition> vehicles = ageMs > maxStaleMs ? Collections.emptyList() : good.vehicles();
+        if (current.stale() && current.apiStatus().equals(status) && current.vehicles().equals(vehicles)) {
+            return;
+        }
+        publish(new VehicleData(vehicles, good.apiResponseTimestamp(), good.lastFetchTime(), status,
+                current.sequence() + 1, true, ageMs));
+    }
+
+    // Before the first good fetch, the age counts from startup
+    private long lastGoodAgeMs(VehicleData good) {
+        return System.currentTimeMillis() - (good.sequence() == 0 ? startedAt : good.lastFetchTime().toEpochMilli());
+    }
+
+    private Timer upstreamTimer(String feed, String outcome) {
+        return Timer.builder("grandlyon.upstream.fetch")
+                .description("Requests to the Grand Lyon API")
+                .tag("feed", feed)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private VehicleData publish(VehicleData data) {
+        VehicleData previous = snapshot;
+
+        List<VehicleData> recent = new java.util.ArrayList<>(recentSnapshots);
+        recent.add(data);
+        if (recent.size() > deltaHistory) {
+            recent = recent.subList(recent.size() - deltaHistory, recent.size());
         }
+        this.recentSnapshots = List.copyOf(recent);
+        this.snapshot = data;
+        eventPublisher.publishEvent(new VehicleSnapshotEvent(data, VehicleDelta.between(previous, data)));
+        return data;
+    }
 
-        if (needsFetch) {
-            fetchPassagesFromApi();
+    public List<Passage> getPassages(List<String> stopIds) {
+        long now = System.currentTimeMillis();
+        // Passages have their own lock so they never wait behind the vehicle refresh. Only the first load
+        // makes requests wait; after that one request refreshes while the others answer from the cache.
+        if (now - lastPassagesFetchTime > CACHE_DURATION_MS) {
+            if (cachedPassages == PassageIndex.EMPTY) {
+                fetchPassagesFromApi();
+            } else if (passagesLock.tryLock()) {
+                try {
+                    fetchPassagesLocked();
+                } finally {
+                    passagesLock.unlock();
+                }
+            }
         }
 
-        List<Passage> currentPassages = cachedPassages;
+        PassageIndex currentPassages = cachedPassages;
 
-        if (stopId == null || stopId.isBlank()) {
-            return currentPassages;
+        if (stopIds == null || stopIds.isEmpty()) {
+            return currentPassages.all();
         }
 
-        return currentPassages.stream()
-                .filter(p -> stopId.equals(p.id()))
-                .sorted(java.util.Comparator.comparing(Passage::heurePassage,
-                        java.util.Comparator.nullsLast(String::compareTo)))
-                .toList();
+        return currentPassages.forStops(stopIds);
     }
 
     private void fetchPassagesFromApi() {
-        synchronized (this) {
-            long now = System.currentTimeMillis();
-            if (now - lastPassagesFetchTime < CACHE_DURATION_MS)
-                return;
-
-            try {
-                restTemplate.execute(passagesUrl, org.springframework.http.HttpMethod.GET, null, response -> {
-                    JsonNode root = objectMapper.readTree(response.getBody());
-                    if (root != null && root.has("values")) {
-                        List<Passage> newPassages = objectMapper.convertValue(root.get("values"),
-                                new TypeReference<List<Passage>>() {
-                                });
-                        this.cachedPassages = newPassages;
-                        this.lastPassagesFetchTime = now;
-                    }
-                    return null;
-                });
-            } catch (Exception e) {
-                System.err.println("Error fetching passages: " + e.getMessage());
-            }
+        long waitStart = System.nanoTime();
+        passagesLock.lock();
+        try {
+            passagesLockWait.record(System.nanoTime() - waitStart, java.util.concurrent.TimeUnit.NANOSECONDS);
+            fetchPassagesLocked();
+        } finally {
+            passagesLock.unlock();
         }
     }
 
-    private VehiclePosition mapToVehiclePosition(SiriResponse.VehicleActivity activity) {
-        if (activity == null || activity.monitoredVehicleJourney() == null)
-            return null;
-
-        SiriResponse.MonitoredVehicleJourney journey = activity.monitoredVehicleJourney();
-
-        String vehicleId = journey.vehicleRef() != null ? journey.vehicleRef().value() : null;
-        String lineId = journey.lineRef() != null ? journey.lineRef().value() : null;
-        String direction = journey.directionRef() != null ? journey.directionRef().value() : null;
-        double lat = journey.vehicleLocation() != null ? journey.vehicleLocation().latitude() : 0.0;
-        double lon = journey.vehicleLocation() != null ? journey.vehicleLocation().longitude() : 0.0;
-        String delay = journey.delay();
-
-        // New fields extraction
-        // activity level
-        Instant recordedAt = null;
-        if (activity.recordedAtTime() != null) {
-            try {
-                recordedAt = Instant.parse(activity.recordedAtTime());
-            } catch (Exception ignored) {
-            }
+    // Caller holds passagesLock
+    private void fetchPassagesLocked() {
+        long now = System.currentTimeMillis();
+        if (now - lastPassagesFetchTime < CACHE_DURATION_MS)
+            return;
+        // The cached passages are served as they are until the circuit lets a request through again
+        if (!passagesCircuit.allowRequest()) {
+            resilience.countSkipped("passages");
+            return;
         }
 
-        Instant validUntil = null;
-        if (activity.validUntilTime() != null) {
-            try {
-                validUntil = Instant.parse(activity.validUntilTime());
-            } catch (Exception ignored) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            PassageIndex newPassages = restTemplate.execute(passagesUrl, org.springframework.http.HttpMethod.GET,
+                    null, response -> passageReader.read(response.getBody()));
+            if (newPassages != null) {
+                this.cachedPassages = newPassages;
+                this.lastPassagesFetchTime = now;
+                outcome = "ok";
+                passagesCircuit.onSuccess();
+            } else {
+                outcome = "empty";
+                passagesCircuit.onFailure();
             }
+        } catch (org.springframework.web.client.ResourceAccessException e) {
+            System.err.println("Error fetching passages: " + e.getMessage());
+            outcome = "api_down";
+            passagesCircuit.onFailure();
+        } catch (Exception e) {
+            System.err.println("Error fetching passages: " + e.getMessage());
+            passagesCircuit.onFailure();
+        } finally {
+            sample.stop(upstreamTimer("passages", outcome));
         }
-
-        // journey level
-        String destination = journey.destinationRef() != null ? journey.destinationRef().value() : null;
-        String dataSource = journey.dataSource();
-        Double bearing = journey.bearing();
-        String status = journey.vehicleStatus();
-
-        return new VehiclePosition(vehicleId, lineId, direction, lat, lon, delay, recordedAt, validUntil, destination,
-                dataSource, bearing, status);
     }
 }
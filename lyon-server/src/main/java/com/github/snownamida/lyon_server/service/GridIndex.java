@@ -0,0 +1,124 @@
+package com.github.snownamida.lyon_server.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+// Immutable uniform grid over latitude/longitude. Cells are a fixed number of degrees wide,
+// which at Lyon's latitude keeps the handful of cells touched by a viewport query small.
+public final class GridIndex<T> {
+
+    private static final double EARTH_RADIUS_M = 6_371_000;
+
+    private final double cellSize;
+    private final Map<Long, List<T>> cells;
+    // Rows and columns of the occupied cells, queries never look outside them
+    private final int minRow;
+    private final int maxRow;
+    private final int minCol;
+    private final int maxCol;
+    private final ToDoubleFunction<T> latitude;
+    private final ToDoubleFunction<T> longitude;
+
+    private GridIndex(double cellSize, Map<Long, List<T>> cells, int[] occupied, ToDoubleFunction<T> latitude,
+            ToDoubleFunction<T> longitude) {
+        this.cellSize = cellSize;
+        this.cells = cells;
+        this.minRow = occupied[0];
+        this.maxRow = occupied[1];
+        this.minCol = occupied[2];
+        this.maxCol = occupied[3];
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public static <T> GridIndex<T> build(Collection<T> items, ToDoubleFunction<T> latitude,
+            ToDoubleFunction<T> longitude, double cellSize) {
+        Map<Long, List<T>> cells = new HashMap<>();
+        int[] occupied = { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (T item : items) {
+            int row = cell(latitude.applyAsDouble(item), cellSize);
+            int col = cell(longitude.applyAsDouble(item), cellSize);
+            cells.computeIfAbsent(key(row, col), k -> new ArrayList<>()).add(item);
+            occupied[0] = Math.min(occupied[0], row);
+            occupied[1] = Math.max(occupied[1], row);
+            occupied[2] = Math.min(occupied[2], col);
+            occupied[3] = Math.max(occupied[3], col);
+        }
+        return new GridIndex<>(cellSize, cells, occupied, latitude, longitude);
+    }
+
+    public List<T> within(double minLat, double minLon, double maxLat, double maxLon) {
+        List<T> result = new ArrayList<>();
+        // Out of range degrees saturate the int cells, and the clamp keeps the walk to the populated area
+        int minRow = Math.max(cell(minLat, cellSize), this.minRow);
+        int maxRow = Math.min(cell(maxLat, cellSize), this.maxRow);
+        int minCol = Math.max(cell(minLon, cellSize), this.minCol);
+        int maxCol = Math.min(cell(maxLon, cellSize), this.maxCol);
+        if (minRow > maxRow || minCol > maxCol) {
+            return result;
+        }
+
+        // A box larger than the populated area is cheaper to answer by walking the occupied cells
+        if (((long) maxRow - minRow + 1) * (double) ((long) maxCol - minCol + 1) > cells.size()) {
+            for (List<T> cell : cells.values()) {
+                collect(cell, minLat, minLon, maxLat, maxLon, result);
+            }
+            return result;
+        }
+        // Long counters, so a last row or column of Integer.MAX_VALUE can't wrap around
+        for (long row = minRow; row <= maxRow; row++) {
+            for (long col = minCol; col <= maxCol; col++) {
+                List<T> cell = cells.get(key((int) row, (int) col));
+                if (cell != null) {
+                    collect(cell, minLat, minLon, maxLat, maxLon, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Items within radiusMeters of the point, closest first
+    public List<T> near(double lat, double lon, double radiusMeters) {
+        double dLat = Math.toDegrees(radiusMeters / EARTH_RADIUS_M);
+        double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+        List<T> result = new ArrayList<>();
+        for (T item : within(lat - dLat, lon - dLon, lat + dLat, lon + dLon)) {
+            if (distanceMeters(lat, lon, latitude.applyAsDouble(item), longitude.applyAsDouble(item)) <= radiusMeters) {
+                result.add(item);
+            }
+        }
+        result.sort(Comparator.comparingDouble(
+                item -> distanceMeters(lat, lon, latitude.applyAsDouble(item), longitude.applyAsDouble(item))));
+        return result;
+    }
+
+    private void collect(List<T> cell, double minLat, double minLon, double maxLat, double maxLon, List<T> result) {
+        for (T item : cell) {
+            double lat = latitude.applyAsDouble(item);
+            double lon = longitude.applyAsDouble(item);
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                result.add(item);
+            }
+        }
+    }
+
+    // Equirectangular approximation, accurate to well under a metre at city scale
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+
+    private static int cell(double degrees, double cellSize) {
+        return (int) Math.floor(degrees / cellSize);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+}
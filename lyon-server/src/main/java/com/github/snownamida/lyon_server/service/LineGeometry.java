@@ -0,0 +1,197 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Polylines of one line layer, grouped by line code ("T1", "C13", ...) so a vehicle is only ever matched
+// against the routes of its own line. Built once per layer version. Coordinates are kept in local metres
+// (equirectangular around each route's first vertex), with the cumulative distance at every vertex so a
+// position along a route is a binary search away.
+final class LineGeometry {
+
+    private static final double EARTH_RADIUS_M = 6_371_000;
+
+    // One traced direction or branch of a line
+    static final class Route {
+
+        private final double originLat;
+        private final double originLon;
+        private final double metresPerDegreeLon;
+        private final double[] x;
+        private final double[] y;
+        private final double[] measures;
+        private final double minX, minY, maxX, maxY;
+
+        Route(double[] lonLat) {
+            int points = lonLat.length / 2;
+            this.originLon = lonLat[0];
+            this.originLat = lonLat[1];
+            this.metresPerDegreeLon = Math.toRadians(1) * EARTH_RADIUS_M * Math.cos(Math.toRadians(originLat));
+            this.x = new double[points];
+            this.y = new double[points];
+            this.measures = new double[points];
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int i = 0; i < points; i++) {
+                x[i] = (lonLat[i * 2] - originLon) * metresPerDegreeLon;
+                y[i] = (lonLat[i * 2 + 1] - originLat) * Math.toRadians(1) * EARTH_RADIUS_M;
+                if (i > 0) {
+                    measures[i] = measures[i - 1] + Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+                }
+                minX = Math.min(minX, x[i]);
+                maxX = Math.max(maxX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        double length() {
+            return measures[measures.length - 1];
+        }
+
+        // Latitude, longitude and the route's bearing in degrees at the given distance from its start
+        double[] pointAt(double measure) {
+            measure = Math.max(0, Math.min(length(), measure));
+            int low = 0, high = measures.length - 1;
+            while (high - low > 1) {
+                int middle = (low + high) >>> 1;
+                if (measures[middle] <= measure) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+            double segment = measures[high] - measures[low];
+            double t = segment == 0 ? 0 : (measure - measures[low]) / segment;
+            double px = x[low] + t * (x[high] - x[low]);
+            double py = y[low] + t * (y[high] - y[low]);
+            double bearing = Math.toDegrees(Math.atan2(x[high] - x[low], y[high] - y[low]));
+            return new double[] { latitude(py), longitude(px), bearing < 0 ? bearing + 360 : bearing };
+        }
+
+        private double latitude(double py) {
+            return originLat + py / (Math.toRadians(1) * EARTH_RADIUS_M);
+        }
+
+        private double longitude(double px) {
+            return originLon + px / metresPerDegreeLon;
+        }
+    }
+
+    // Where a position falls on a route: distance along it, distance off it and the route's bearing there
+    record Snap(Route route, double measure, double offset, double bearing) {
+    }
+
+    private final Map<String, List<Route>> routes;
+
+    private LineGeometry(Map<String, List<Route>> routes) {
+        this.routes = routes;
+    }
+
+    int lines() {
+        return routes.size();
+    }
+
+    // Closest point on the line's routes, or null when the line is unknown or every route is further than maxOffset
+    Snap snap(String lineCode, double latitude, double longitude, double maxOffset) {
+        List<Route> candidates = routes.get(lineCode);
+        if (candidates == null) {
+            return null;
+        }
+        Snap best = null;
+        for (Route route : candidates) {
+            double px = (longitude - route.originLon) * route.metresPerDegreeLon;
+            double py = (latitude - route.originLat) * Math.toRadians(1) * EARTH_RADIUS_M;
+            if (px < route.minX - maxOffset || px > route.maxX + maxOffset
+                    || py < route.minY - maxOffset || py > route.maxY + maxOffset) {
+                continue;
+            }
+            for (int i = 0; i + 1 < route.x.length; i++) {
+                double ax = route.x[i], ay = route.y[i];
+                double dx = route.x[i + 1] - ax, dy = route.y[i + 1] - ay;
+                double lengthSquared = dx * dx + dy * dy;
+                double t = lengthSquared == 0 ? 0
+                        : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+                double offset = Math.hypot(ax + t * dx - px, ay + t * dy - py);
+                if (offset <= maxOffset && (best == null || offset < best.offset())) {
+                    double bearing = Math.toDegrees(Math.atan2(dx, dy));
+                    best = new Snap(route, route.measures[i] + t * Math.sqrt(lengthSquared), offset,
+                            bearing < 0 ? bearing + 360 : bearing);
+                }
+            }
+        }
+        return best;
+    }
+
+    // Streams the layer's features like VectorTileService; routes are keyed by both "ligne" and "code_ligne"
+    static LineGeometry parse(ObjectMapper objectMapper, TransportLineService.LineData lineData) {
+        Map<String, List<Route>> routes = new HashMap<>();
+        if (!"OK".equals(lineData.status())) {
+            return new LineGeometry(routes);
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(lineData.geojson())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new LineGeometry(routes);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("features".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        addFeature(parser.readValueAsTree(), routes);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to parse layer for interpolation: " + e.getMessage());
+        }
+        return new LineGeometry(routes);
+    }
+
+    private static void addFeature(JsonNode feature, Map<String, List<Route>> routes) {
+        JsonNode geometry = feature.path("geometry");
+        JsonNode coordinates = geometry.path("coordinates");
+        List<Route> parts = new ArrayList<>();
+        switch (geometry.path("type").asText()) {
+            case "LineString" -> addRoute(coordinates, parts);
+            case "MultiLineString" -> coordinates.forEach(line -> addRoute(line, parts));
+            default -> {
+                return;
+            }
+        }
+        JsonNode properties = feature.path("properties");
+        Set<String> codes = new HashSet<>();
+        for (String key : new String[] { "ligne", "code_ligne" }) {
+            String code = properties.path(key).asText("");
+            if (!code.isEmpty() && codes.add(code)) {
+                routes.computeIfAbsent(code, k -> new ArrayList<>()).addAll(parts);
+            }
+        }
+    }
+
+    private static void addRoute(JsonNode line, List<Route> parts) {
+        if (line.size() < 2) {
+            return;
+        }
+        double[] lonLat = new double[line.size() * 2];
+        for (int i = 0; i < line.size(); i++) {
+            lonLat[i * 2] = line.get(i).path(0).asDouble();
+            lonLat[i * 2 + 1] = line.get(i).path(1).asDouble();
+        }
+        parts.add(new Route(lonLat));
+    }
+}
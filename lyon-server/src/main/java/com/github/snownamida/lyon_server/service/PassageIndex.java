@@ -0,0 +1,76 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.Passage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable view of one passages download: the rows in feed order plus, per stop id,
+// the rows already sorted by heurePassage, so a stop lookup is a single map hit.
+public final class PassageIndex {
+
+    static final Comparator<Passage> BY_HEURE_PASSAGE = Comparator.comparing(Passage::heurePassage,
+            Comparator.nullsLast(String::compareTo));
+
+    public static final PassageIndex EMPTY = new PassageIndex(List.of(), Map.of());
+
+    private final List<Passage> all;
+    private final Map<String, List<Passage>> byStop;
+
+    private PassageIndex(List<Passage> all, Map<String, List<Passage>> byStop) {
+        this.all = all;
+        this.byStop = byStop;
+    }
+
+    public List<Passage> all() {
+        return all;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    public List<Passage> forStop(String stopId) {
+        return byStop.getOrDefault(stopId, List.of());
+    }
+
+    public List<Passage> forStops(Collection<String> stopIds) {
+        if (stopIds.size() == 1) {
+            return forStop(stopIds.iterator().next());
+        }
+        List<Passage> result = new ArrayList<>();
+        for (String stopId : stopIds) {
+            result.addAll(forStop(stopId));
+        }
+        result.sort(BY_HEURE_PASSAGE);
+        return result;
+    }
+
+    public static class Builder {
+
+        private final List<Passage> all = new ArrayList<>();
+        private final Map<String, List<Passage>> byStop = new HashMap<>();
+
+        public Builder add(Passage passage) {
+            all.add(passage);
+            if (passage.id() != null) {
+                byStop.computeIfAbsent(passage.id(), id -> new ArrayList<>()).add(passage);
+            }
+            return this;
+        }
+
+        public PassageIndex build() {
+            Map<String, List<Passage>> sorted = new HashMap<>(byStop.size() * 2);
+            for (Map.Entry<String, List<Passage>> entry : byStop.entrySet()) {
+                List<Passage> passages = entry.getValue();
+                passages.sort(BY_HEURE_PASSAGE);
+                sorted.put(entry.getKey(), List.copyOf(passages));
+            }
+            return new PassageIndex(List.copyOf(all), Map.copyOf(sorted));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.Passage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Streams the tclpassagearret feed: walks the tokens up to "values" and binds one Passage at a time
+// straight into a PassageIndex, so the whole document never sits in memory as a JsonNode tree.
+public class PassageReader {
+
+    private final ObjectMapper objectMapper;
+
+    public PassageReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    // Returns null when the document has no "values" array
+    public PassageIndex read(InputStream body) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("values".equals(field) && value == JsonToken.START_ARRAY) {
+                    PassageIndex.Builder index = new PassageIndex.Builder();
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        index.add(objectMapper.readValue(parser, Passage.class));
+                    }
+                    return index.build();
+                }
+                parser.skipChildren();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,380 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streams the SIRI vehicle-monitoring feed: walks the tokens down to each VehicleActivity, reads the few
+// fields we keep and deduplicates on the fly, so no record tree or per-line group lists are built.
+// Delays and timestamps are parsed once per activity.
+public class SiriReader {
+
+    // Returned by delaySeconds when the value is missing or not an ISO-8601 duration
+    public static final long NO_DELAY = Long.MIN_VALUE;
+
+    public record Result(Instant responseTimestamp, List<VehiclePosition> vehicles, int activities) {
+    }
+
+    private final JsonFactory jsonFactory;
+
+    public SiriReader(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    // Returns null when the document has no VehicleMonitoringDelivery
+    public Result read(InputStream body) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT
+                    || !findObject(parser, "Siri")
+                    || !findObject(parser, "ServiceDelivery")) {
+                return null;
+            }
+
+            Instant responseTimestamp = null;
+            Map<String, Candidate> best = null;
+            Activity activity = new Activity();
+            int activities = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("ResponseTimestamp".equals(field)) {
+                    responseTimestamp = parseInstant(text(parser));
+                } else if ("VehicleMonitoringDelivery".equals(field) && value == JsonToken.START_ARRAY) {
+                    if (best == null) {
+                        best = new LinkedHashMap<>();
+                    }
+                    while (nextObject(parser)) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String deliveryField = parser.currentName();
+                            if (parser.nextToken() == JsonToken.START_ARRAY
+                                    && "VehicleActivity".equals(deliveryField)) {
+                                while (nextObject(parser)) {
+                                    activities++;
+                                    activity.read(parser);
+                                    keepBest(best, activity);
+                                }
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (best == null) {
+                return null;
+            }
+            List<VehiclePosition> vehicles = new ArrayList<>(best.size());
+            for (Candidate candidate : best.values()) {
+                vehicles.add(candidate.position);
+            }
+            return new Result(responseTimestamp, Collections.unmodifiableList(vehicles), activities);
+        }
+    }
+
+    // The feed repeats some vehicles, a real-time entry next to a scheduled phantom. Keep the one with
+    // a valid delay closest to zero, then any delay at all, first seen on ties.
+    private static void keepBest(Map<String, Candidate> best, Activity activity) {
+        if (activity.vehicleId == null) {
+            return;
+        }
+        long rank;
+        if (activity.delay == null) {
+            rank = Long.MAX_VALUE;
+        } else if (activity.delaySeconds == NO_DELAY) {
+            rank = Long.MAX_VALUE - 1;
+        } else {
+            rank = Math.abs(activity.delaySeconds);
+        }
+
+        Candidate current = best.get(activity.vehicleId);
+        if (current == null) {
+            best.put(activity.vehicleId, new Candidate(activity.toPosition(), rank));
+        } else if (rank < current.rank) {
+            current.position = activity.toPosition();
+            current.rank = rank;
+        }
+    }
+
+    private static final class Candidate {
+        VehiclePosition position;
+        long rank;
+
+        Candidate(VehiclePosition position, long rank) {
+            this.position = position;
+            this.rank = rank;
+        }
+    }
+
+    // Scratch space for one VehicleActivity, reused across the whole document
+    private static final class Activity {
+        String vehicleId;
+        String lineId;
+        String direction;
+        double latitude;
+        double longitude;
+        String delay;
+        long delaySeconds;
+        Instant recordedAt;
+        Instant validUntil;
+        String destination;
+        String dataSource;
+        Double bearing;
+        String status;
+
+        void read(JsonParser parser) throws IOException {
+            vehicleId = null;
+            lineId = null;
+            direction = null;
+            latitude = 0.0;
+            longitude = 0.0;
+            delay = null;
+            recordedAt = null;
+            validUntil = null;
+            destination = null;
+            dataSource = null;
+            bearing = null;
+            status = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "RecordedAtTime" -> recordedAt = parseInstant(text(parser));
+                    case "ValidUntilTime" -> validUntil = parseInstant(text(parser));
+                    case "MonitoredVehicleJourney" -> {
+                        if (value == JsonToken.START_OBJECT) {
+                            readJourney(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            delaySeconds = delaySeconds(delay);
+        }
+
+        private void readJourney(JsonParser parser) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "VehicleRef" -> vehicleId = valueRef(parser);
+                    case "LineRef" -> lineId = valueRef(parser);
+                    case "DirectionRef" -> direction = valueRef(parser);
+                    case "DestinationRef" -> destination = valueRef(parser);
+                    case "DataSource" -> dataSource = text(parser);
+                    case "VehicleStatus" -> status = text(parser);
+                    case "Delay" -> delay = text(parser);
+                    case "Bearing" -> {
+                        bearing = value.isNumeric() ? parser.getDoubleValue() : null;
+                        parser.skipChildren();
+                    }
+                    case "VehicleLocation" -> {
+                        if (value != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            break;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String coordinate = parser.currentName();
+                            parser.nextToken();
+                            if ("Latitude".equals(coordinate)) {
+                                latitude = parser.getValueAsDouble();
+                            } else if ("Longitude".equals(coordinate)) {
+                                longitude = parser.getValueAsDouble();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+
+        VehiclePosition toPosition() {
+            return new VehiclePosition(vehicleId, lineId, direction, latitude, longitude, delay, recordedAt,
+                    validUntil, destination, dataSource, bearing, status);
+        }
+    }
+
+    // Delays look like PT3M, -PT1M30S or PT0S. Anything fancier goes through Duration.parse.
+    public static long delaySeconds(String delay) {
+        if (delay == null) {
+            return NO_DELAY;
+        }
+        int length = delay.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (delay.charAt(i) == '-' || delay.charAt(i) == '+')) {
+            negative = delay.charAt(i) == '-';
+            i++;
+        }
+        if (length - i < 4 || delay.charAt(i) != 'P' || delay.charAt(i + 1) != 'T') {
+            return slowDelaySeconds(delay);
+        }
+        i += 2;
+        long seconds = 0;
+        while (i < length) {
+            long number = 0;
+            int start = i;
+            while (i < length && delay.charAt(i) >= '0' && delay.charAt(i) <= '9') {
+                number = number * 10 + (delay.charAt(i++) - '0');
+            }
+            if (i == start || i == length || i - start > 9) {
+                return slowDelaySeconds(delay);
+            }
+            switch (delay.charAt(i++)) {
+                case 'H' -> seconds += number * 3600;
+                case 'M' -> seconds += number * 60;
+                case 'S' -> seconds += number;
+                default -> {
+                    return slowDelaySeconds(delay);
+                }
+            }
+        }
+        return negative ? -seconds : seconds;
+    }
+
+    private static long slowDelaySeconds(String delay) {
+        try {
+            return Duration.parse(delay).getSeconds();
+        } catch (Exception e) {
+            return NO_DELAY;
+        }
+    }
+
+    // Timestamps look like 2025-12-29T18:38:54.2159193Z. Anything else goes through Instant.parse.
+    static Instant parseInstant(String value) {
+        if (value == null) {
+            return null;
+        }
+        int length = value.length();
+        if (length >= 20 && value.charAt(length - 1) == 'Z'
+                && value.charAt(4) == '-' && value.charAt(7) == '-' && value.charAt(10) == 'T'
+                && value.charAt(13) == ':' && value.charAt(16) == ':') {
+            int year = digits(value, 0, 4);
+            int month = digits(value, 5, 2);
+            int day = digits(value, 8, 2);
+            int hour = digits(value, 11, 2);
+            int minute = digits(value, 14, 2);
+            int second = digits(value, 17, 2);
+            int nanos = 0;
+            boolean valid = year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= monthLength(year, month)
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60;
+            if (valid && length > 20) {
+                int fraction = length - 21;
+                valid = value.charAt(19) == '.' && fraction >= 1 && fraction <= 9;
+                nanos = valid ? digits(value, 20, fraction) : -1;
+                for (int k = fraction; valid && k < 9; k++) {
+                    nanos *= 10;
+                }
+                valid = valid && nanos >= 0;
+            } else if (valid) {
+                valid = length == 20;
+            }
+            if (valid) {
+                long epochSecond = epochDay(year, month, day) * 86400 + hour * 3600 + minute * 60 + second;
+                return Instant.ofEpochSecond(epochSecond, nanos);
+            }
+        }
+        try {
+            return Instant.parse(value);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Parses count ASCII digits, or returns -1
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int monthLength(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar (Howard Hinnant's days_from_civil)
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static String text(JsonParser parser) throws IOException {
+        String text = parser.getValueAsString();
+        parser.skipChildren();
+        return text;
+    }
+
+    private static String valueRef(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return text(parser);
+        }
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("value".equals(field)) {
+                value = text(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    // Moves into the object held by the given field of the current object
+    private static boolean findObject(JsonParser parser, String name) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (name.equals(field) && value == JsonToken.START_OBJECT) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    // Advances to the next object of the current array, skipping anything else
+    private static boolean nextObject(JsonParser parser) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,267 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.github.snownamida.lyon_server.service.ArchiveFormat.*;
+
+// Streams archived snapshots back from the segments written by SnapshotArchiveService. Segments are
+// memory-mapped and inflated straight from the mapping, so only the decoded snapshots reach the heap.
+// Usable on its own, e.g. from an analytics job pointed at a copy of the archive directory.
+public class SnapshotArchiveReader {
+
+    private final Path directory;
+
+    public SnapshotArchiveReader(Path directory) {
+        this.directory = directory;
+    }
+
+    // Hands every snapshot fetched within [from, to] to the consumer, oldest first
+    public void read(Instant from, Instant to, Consumer<VehicleData> consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(file -> segmentStart(file) >= 0)
+                    .sorted()
+                    .toList();
+        }
+        long fromMillis = epochMillis(from);
+        long toMillis = epochMillis(to);
+        for (int i = 0; i < segments.size(); i++) {
+            long start = segmentStart(segments.get(i));
+            long end = i + 1 < segments.size() ? segmentStart(segments.get(i + 1)) : Long.MAX_VALUE;
+            if (start > toMillis) {
+                break;
+            }
+            if (end > fromMillis) {
+                readSegment(segments.get(i), fromMillis, toMillis, consumer);
+            }
+        }
+    }
+
+    // Instant.MIN and MAX don't fit in milliseconds, they simply mean no bound
+    private static long epochMillis(Instant instant) {
+        try {
+            return instant.toEpochMilli();
+        } catch (ArithmeticException e) {
+            return instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    private void readSegment(Path segment, long fromMillis, long toMillis, Consumer<VehicleData> consumer)
+            throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(mapped);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new InflatingStream(inflater)));
+            SegmentState state = new SegmentState();
+            while (true) {
+                VehicleData snapshot;
+                try {
+                    snapshot = state.readFrame(in);
+                } catch (EOFException e) {
+                    // End of the segment, or a frame cut short by a crash
+                    return;
+                }
+                long fetchMillis = snapshot.lastFetchTime().toEpochMilli();
+                if (fetchMillis > toMillis) {
+                    return;
+                }
+                if (fetchMillis >= fromMillis) {
+                    consumer.accept(snapshot);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Everything a frame can refer to: the segment's strings and each vehicle's last values
+    private static final class SegmentState {
+
+        private final List<String> strings = new ArrayList<>();
+        private long fetchMillis;
+        private long sequence;
+
+        private boolean[] present = new boolean[0];
+        private int[] latitudes = new int[0];
+        private int[] longitudes = new int[0];
+        private int[] bearings = new int[0];
+        private int[] delays = new int[0];
+        private int[][] journeys = new int[0][];
+        private long[] recordedAts = new long[0];
+        private long[] validUntils = new long[0];
+        private VehiclePosition[] positions = new VehiclePosition[0];
+
+        VehicleData readFrame(DataInputStream in) throws IOException {
+            fetchMillis += readSignedVarLong(in);
+            long apiOffset = readVarLong(in);
+            sequence += readSignedVarLong(in);
+
+            int newStrings = readVarInt(in);
+            for (int i = 0; i < newStrings; i++) {
+                byte[] utf8 = new byte[readVarInt(in)];
+                in.readFully(utf8);
+                strings.add(new String(utf8, StandardCharsets.UTF_8));
+            }
+            ensureVehicle(strings.size() + 1);
+
+            int removed = readVarInt(in);
+            int code = 0;
+            for (int i = 0; i < removed; i++) {
+                code += readVarInt(in);
+                present[code] = false;
+                positions[code] = null;
+            }
+
+            int changed = readVarInt(in);
+            code = 0;
+            for (int i = 0; i < changed; i++) {
+                code += readVarInt(in);
+                readRow(in, code);
+            }
+
+            List<VehiclePosition> vehicles = new ArrayList<>();
+            for (VehiclePosition position : positions) {
+                if (position != null) {
+                    vehicles.add(position);
+                }
+            }
+            Instant apiTimestamp = apiOffset == 0 ? null
+                    : Instant.ofEpochMilli(fetchMillis + unZigZag(apiOffset - 1));
+            return new VehicleData(vehicles, apiTimestamp, Instant.ofEpochMilli(fetchMillis), "OK", sequence);
+        }
+
+        private void readRow(DataInputStream in, int code) throws IOException {
+            int mask = in.readUnsignedByte();
+            if (!present[code]) {
+                latitudes[code] = 0;
+                longitudes[code] = 0;
+                bearings[code] = 0;
+                recordedAts[code] = 0;
+                validUntils[code] = 0;
+                present[code] = true;
+            }
+            if ((mask & LATITUDE) != 0) {
+                latitudes[code] += (int) readSignedVarLong(in);
+            }
+            if ((mask & LONGITUDE) != 0) {
+                longitudes[code] += (int) readSignedVarLong(in);
+            }
+            if ((mask & BEARING) != 0) {
+                bearings[code] += (int) readSignedVarLong(in);
+            }
+            if ((mask & DELAY) != 0) {
+                delays[code] = readVarInt(in);
+            }
+            if ((mask & JOURNEY) != 0) {
+                int[] journey = new int[JOURNEY_FIELDS];
+                for (int i = 0; i < JOURNEY_FIELDS; i++) {
+                    journey[i] = readVarInt(in);
+                }
+                journeys[code] = journey;
+            }
+            if ((mask & RECORDED_AT) != 0) {
+                recordedAts[code] += readSignedVarLong(in);
+            }
+            if ((mask & VALID_UNTIL) != 0) {
+                validUntils[code] += readSignedVarLong(in);
+            }
+
+            int[] journey = journeys[code];
+            positions[code] = new VehiclePosition(string(code), string(journey[0]), string(journey[1]),
+                    latitudes[code] / MICRO_DEGREES, longitudes[code] / MICRO_DEGREES, string(delays[code]),
+                    instant(recordedAts[code]), instant(validUntils[code]), string(journey[2]), string(journey[3]),
+                    bearings[code] == 0 ? null : (bearings[code] - 1) / 10.0, string(journey[4]));
+        }
+
+        private String string(int code) {
+            return code == 0 ? null : strings.get(code - 1);
+        }
+
+        private void ensureVehicle(int length) {
+            if (length <= present.length) {
+                return;
+            }
+            length = Math.max(64, length * 2);
+            present = Arrays.copyOf(present, length);
+            latitudes = Arrays.copyOf(latitudes, length);
+            longitudes = Arrays.copyOf(longitudes, length);
+            bearings = Arrays.copyOf(bearings, length);
+            delays = Arrays.copyOf(delays, length);
+            journeys = Arrays.copyOf(journeys, length);
+            recordedAts = Arrays.copyOf(recordedAts, length);
+            validUntils = Arrays.copyOf(validUntils, length);
+            positions = Arrays.copyOf(positions, length);
+        }
+
+        private static Instant instant(long millis) {
+            return millis == 0 ? null : Instant.ofEpochMilli(millis);
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+    // Output of an Inflater fed from the mapped segment. A segment still being written ends after its
+    // last flushed frame, which shows up here as the end of the stream.
+    private static final class InflatingStream extends InputStream {
+
+        private final Inflater inflater;
+        private final byte[] single = new byte[1];
+
+        InflatingStream(Inflater inflater) {
+            this.inflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            try {
+                int count;
+                while ((count = inflater.inflate(buffer, offset, length)) == 0) {
+                    if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+                        return -1;
+                    }
+                }
+                return count;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt archive segment", e);
+            }
+        }
+    }
+}
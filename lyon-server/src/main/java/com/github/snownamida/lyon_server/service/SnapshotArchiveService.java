@@ -0,0 +1,145 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Optional long-term archive of every successful snapshot, in rolling delta-encoded deflate segments
+// (see ArchiveFormat). Writing happens on a dedicated thread; when it falls behind, snapshots are dropped
+// rather than queued without bound.
+@Service
+public class SnapshotArchiveService {
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentMillis;
+    private final long retentionMillis;
+    private final ThreadPoolExecutor writerThread;
+    private final Counter framesWritten;
+    private final Counter bytesWritten;
+    private final Counter dropped;
+
+    // Only touched from the writer thread
+    private SnapshotArchiveWriter segment;
+    private long segmentStart;
+    private long lastSequence = -1;
+
+    public SnapshotArchiveService(@Value("${grandlyon.archive.enabled:false}") boolean enabled,
+            @Value("${grandlyon.archive.dir:${java.io.tmpdir}/lyon-archive}") String directory,
+            @Value("${grandlyon.archive.segment-minutes:60}") long segmentMinutes,
+            @Value("${grandlyon.archive.retention-days:30}") long retentionDays,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.segmentMillis = Math.max(1, segmentMinutes) * 60_000;
+        this.retentionMillis = retentionDays * 86_400_000;
+        this.dropped = Counter.builder("grandlyon.archive.dropped")
+                .description("Snapshots not archived because the writer fell behind")
+                .register(meterRegistry);
+        this.writerThread = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "snapshot-archive");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> dropped.increment());
+        this.framesWritten = meterRegistry.counter("grandlyon.archive.frames");
+        this.bytesWritten = Counter.builder("grandlyon.archive.written")
+                .description("Compressed bytes appended to archive segments")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        VehicleData snapshot = event.snapshot();
+        if (enabled && "OK".equals(snapshot.apiStatus())) {
+            writerThread.execute(() -> append(snapshot));
+        }
+    }
+
+    public void read(Instant from, Instant to, Consumer<VehicleData> consumer) throws IOException {
+        new SnapshotArchiveReader(directory).read(from, to, consumer);
+    }
+
+    void append(VehicleData snapshot) {
+        if (snapshot.sequence() <= lastSequence || snapshot.lastFetchTime() == null) {
+            return;
+        }
+        try {
+            long fetchMillis = snapshot.lastFetchTime().toEpochMilli();
+            if (segment == null || fetchMillis >= segmentStart + segmentMillis) {
+                roll(fetchMillis - Math.floorMod(fetchMillis, segmentMillis));
+            }
+            long before = segment.size();
+            segment.write(snapshot);
+            lastSequence = snapshot.sequence();
+            framesWritten.increment();
+            bytesWritten.increment(segment.size() - before);
+        } catch (IOException e) {
+            System.err.println("Failed to archive snapshot " + snapshot.sequence() + ": " + e.getMessage());
+            closeSegment();
+        }
+    }
+
+    private void roll(long start) throws IOException {
+        closeSegment();
+        Files.createDirectories(directory);
+        Path file = directory.resolve(ArchiveFormat.segmentName(start));
+        // A segment left by a previous run can't be continued, its dictionary is gone
+        if (Files.exists(file)) {
+            start = Math.max(start + 1, System.currentTimeMillis());
+            file = directory.resolve(ArchiveFormat.segmentName(start));
+        }
+        segment = new SnapshotArchiveWriter(file);
+        segmentStart = start - Math.floorMod(start, segmentMillis);
+        deleteExpiredSegments(start);
+    }
+
+    private void deleteExpiredSegments(long now) {
+        if (retentionMillis <= 0) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> {
+                long start = ArchiveFormat.segmentStart(file);
+                return start >= 0 && start + segmentMillis < now - retentionMillis;
+            }).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Failed to clean snapshot archive: " + e.getMessage());
+        }
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close archive segment " + segment.file() + ": " + e.getMessage());
+        }
+        segment = null;
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        writerThread.shutdown();
+        writerThread.awaitTermination(10, TimeUnit.SECONDS);
+        closeSegment();
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static com.github.snownamida.lyon_server.service.ArchiveFormat.*;
+
+// Appends snapshots to one segment, see ArchiveFormat for the layout. Not thread safe.
+final class SnapshotArchiveWriter implements Closeable {
+
+    private final Path file;
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    private final OutputStream out;
+    private final ByteArrayOutputStream frameBytes = new ByteArrayOutputStream(16 * 1024);
+    private final DataOutputStream frame = new DataOutputStream(frameBytes);
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> newStrings = new ArrayList<>();
+    private long previousFetchMillis;
+    private long previousSequence;
+    private long frames;
+
+    // Last written values per vehicle, indexed by the code of its id
+    private long[] seenInFrame = new long[0];
+    private boolean[] present = new boolean[0];
+    private int[] latitudes = new int[0];
+    private int[] longitudes = new int[0];
+    private int[] bearings = new int[0];
+    private int[] delays = new int[0];
+    private int[][] journeys = new int[0][];
+    private long[] recordedAts = new long[0];
+    private long[] validUntils = new long[0];
+
+    SnapshotArchiveWriter(Path file) throws IOException {
+        this.file = file;
+        // Synced after every frame, so readers see complete frames even while the segment is open
+        this.out = new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), deflater,
+                64 * 1024, true);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long size() throws IOException {
+        return Files.size(file);
+    }
+
+    void write(VehicleData snapshot) throws IOException {
+        frames++;
+        frameBytes.reset();
+        newStrings.clear();
+
+        long fetchMillis = snapshot.lastFetchTime().toEpochMilli();
+        writeSignedVarLong(frame, fetchMillis - previousFetchMillis);
+        writeVarLong(frame, snapshot.apiResponseTimestamp() == null ? 0
+                : zigZag(snapshot.apiResponseTimestamp().toEpochMilli() - fetchMillis) + 1);
+        writeSignedVarLong(frame, snapshot.sequence() - previousSequence);
+        previousFetchMillis = fetchMillis;
+        previousSequence = snapshot.sequence();
+
+        // Vehicles sorted by code, so their codes can be written as small deltas
+        List<VehiclePosition> vehicles = snapshot.vehicles();
+        long[] order = new long[vehicles.size()];
+        for (int i = 0; i < vehicles.size(); i++) {
+            int code = code(vehicles.get(i).vehicleId());
+            ensureVehicle(code);
+            seenInFrame[code] = frames;
+            order[i] = ((long) code << 32) | i;
+        }
+        Arrays.sort(order);
+
+        ByteArrayOutputStream rowBytes = new ByteArrayOutputStream(8 * 1024);
+        DataOutputStream rows = new DataOutputStream(rowBytes);
+        int changed = 0;
+        int previousCode = 0;
+        for (long entry : order) {
+            int code = (int) (entry >>> 32);
+            VehiclePosition position = vehicles.get((int) entry);
+            if (writeRow(rows, code, previousCode, position)) {
+                previousCode = code;
+                changed++;
+            }
+        }
+
+        writeVarLong(frame, newStrings.size());
+        for (String value : newStrings) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(frame, utf8.length);
+            frame.write(utf8);
+        }
+
+        int removed = 0;
+        for (int code = 0; code < present.length; code++) {
+            if (present[code] && seenInFrame[code] != frames) {
+                removed++;
+            }
+        }
+        writeVarLong(frame, removed);
+        previousCode = 0;
+        for (int code = 0; code < present.length; code++) {
+            if (present[code] && seenInFrame[code] != frames) {
+                writeVarLong(frame, code - previousCode);
+                previousCode = code;
+                present[code] = false;
+            }
+        }
+
+        writeVarLong(frame, changed);
+        frame.flush();
+        frameBytes.writeTo(out);
+        rowBytes.writeTo(out);
+        out.flush();
+    }
+
+    // Writes the fields that changed since the vehicle's previous row, returns false when nothing did
+    private boolean writeRow(DataOutputStream rows, int code, int previousCode, VehiclePosition position)
+            throws IOException {
+        int latitude = (int) Math.round(position.latitude() * MICRO_DEGREES);
+        int longitude = (int) Math.round(position.longitude() * MICRO_DEGREES);
+        int bearing = position.bearing() == null ? 0 : (int) Math.round(position.bearing() * 10) + 1;
+        int delay = code(position.delay());
+        int[] journey = { code(position.lineId()), code(position.direction()), code(position.destinationName()),
+                code(position.dataSource()), code(position.vehicleStatus()) };
+        long recordedAt = millis(position.recordedAtTime());
+        long validUntil = millis(position.validUntilTime());
+
+        int mask;
+        if (!present[code]) {
+            // New vehicles are written against zeros
+            mask = ALL;
+            latitudes[code] = 0;
+            longitudes[code] = 0;
+            bearings[code] = 0;
+            recordedAts[code] = 0;
+            validUntils[code] = 0;
+            present[code] = true;
+        } else {
+            mask = (latitude != latitudes[code] ? LATITUDE : 0)
+                    | (longitude != longitudes[code] ? LONGITUDE : 0)
+                    | (bearing != bearings[code] ? BEARING : 0)
+                    | (delay != delays[code] ? DELAY : 0)
+                    | (!Arrays.equals(journey, journeys[code]) ? JOURNEY : 0)
+                    | (recordedAt != recordedAts[code] ? RECORDED_AT : 0)
+                    | (validUntil != validUntils[code] ? VALID_UNTIL : 0);
+            if (mask == 0) {
+                return false;
+            }
+        }
+
+        writeVarLong(rows, code - previousCode);
+        rows.writeByte(mask);
+        if ((mask & LATITUDE) != 0) {
+            writeSignedVarLong(rows, latitude - latitudes[code]);
+        }
+        if ((mask & LONGITUDE) != 0) {
+            writeSignedVarLong(rows, longitude - longitudes[code]);
+        }
+        if ((mask & BEARING) != 0) {
+            writeSignedVarLong(rows, bearing - bearings[code]);
+        }
+        if ((mask & DELAY) != 0) {
+            writeVarLong(rows, delay);
+        }
+        if ((mask & JOURNEY) != 0) {
+            for (int value : journey) {
+                writeVarLong(rows, value);
+            }
+        }
+        if ((mask & RECORDED_AT) != 0) {
+            writeSignedVarLong(rows, recordedAt - recordedAts[code]);
+        }
+        if ((mask & VALID_UNTIL) != 0) {
+            writeSignedVarLong(rows, validUntil - validUntils[code]);
+        }
+
+        latitudes[code] = latitude;
+        longitudes[code] = longitude;
+        bearings[code] = bearing;
+        delays[code] = delay;
+        journeys[code] = journey;
+        recordedAts[code] = recordedAt;
+        validUntils[code] = validUntil;
+        return true;
+    }
+
+    // 0 for null, otherwise the string's index + 1, new strings are written with the frame
+    private int code(String value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.put(value, index);
+            newStrings.add(value);
+        }
+        return index + 1;
+    }
+
+    private void ensureVehicle(int code) {
+        if (code < present.length) {
+            return;
+        }
+        int length = Math.max(64, code * 2);
+        seenInFrame = Arrays.copyOf(seenInFrame, length);
+        present = Arrays.copyOf(present, length);
+        latitudes = Arrays.copyOf(latitudes, length);
+        longitudes = Arrays.copyOf(longitudes, length);
+        bearings = Arrays.copyOf(bearings, length);
+        delays = Arrays.copyOf(delays, length);
+        journeys = Arrays.copyOf(journeys, length);
+        recordedAts = Arrays.copyOf(recordedAts, length);
+        validUntils = Arrays.copyOf(validUntils, length);
+    }
+
+    private static long millis(Instant instant) {
+        return instant == null ? 0 : instant.toEpochMilli();
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+}
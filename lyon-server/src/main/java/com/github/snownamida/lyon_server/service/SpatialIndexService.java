@@ -0,0 +1,131 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.Payload;
+import com.github.snownamida.lyon_server.model.StopCollection;
+import com.github.snownamida.lyon_server.model.StopFeature;
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+public class SpatialIndexService {
+
+    private record IndexedVehicles(long sequence, GridIndex<VehiclePosition> grid) {
+    }
+
+    private record IndexedStops(String etag, GridIndex<StopFeature> grid) {
+    }
+
+    private final GrandLyonService grandLyonService;
+    private final TransportLineService transportLineService;
+    private final ObjectMapper objectMapper;
+    private final double cellSize;
+
+    private volatile IndexedVehicles vehicles;
+    private volatile IndexedStops stops;
+    // One stop index build at a time, and only once per version of the stops layer
+    private final ReentrantLock stopsLock = new ReentrantLock();
+
+    public SpatialIndexService(GrandLyonService grandLyonService,
+            TransportLineService transportLineService,
+            ObjectMapper objectMapper,
+            @Value("${grandlyon.spatial.cell-size-deg:0.01}") double cellSize) {
+        this.grandLyonService = grandLyonService;
+        this.transportLineService = transportLineService;
+        this.objectMapper = objectMapper;
+        this.cellSize = cellSize;
+    }
+
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        indexVehicles(event.snapshot());
+    }
+
+    // Same snapshot as /api/vehicles, restricted to the box
+    public VehicleData getVehiclesWithin(double minLat, double minLon, double maxLat, double maxLon) {
+        VehicleData snapshot = grandLyonService.getVehiclePositions();
+        IndexedVehicles indexed = vehicles;
+        if (indexed == null || indexed.sequence() != snapshot.sequence()) {
+            indexed = indexVehicles(snapshot);
+        }
+        return new VehicleData(indexed.grid().within(minLat, minLon, maxLat, maxLon),
+                snapshot.apiResponseTimestamp(), snapshot.lastFetchTime(), snapshot.apiStatus(),
+                snapshot.sequence(), snapshot.stale(), snapshot.ageMs());
+    }
+
+    public StopCollection getStopsNear(double lat, double lon, double radiusMeters) {
+        return StopCollection.of(stopIndex().near(lat, lon, radiusMeters));
+    }
+
+    public StopCollection getStopsWithin(double minLat, double minLon, double maxLat, double maxLon) {
+        return StopCollection.of(stopIndex().within(minLat, minLon, maxLat, maxLon));
+    }
+
+    private IndexedVehicles indexVehicles(VehicleData snapshot) {
+        IndexedVehicles indexed = new IndexedVehicles(snapshot.sequence(),
+                GridIndex.build(snapshot.vehicles(), VehiclePosition::latitude, VehiclePosition::longitude, cellSize));
+        IndexedVehicles current = vehicles;
+        if (current == null || current.sequence() < indexed.sequence()) {
+            this.vehicles = indexed;
+        }
+        return indexed;
+    }
+
+    // Rebuilt whenever the stops layer behind it changes
+    private GridIndex<StopFeature> stopIndex() {
+        Payload payload = transportLineService.getLinePayload("stops");
+        IndexedStops indexed = stops;
+        if (indexed != null && indexed.etag().equals(payload.etag())) {
+            return indexed.grid();
+        }
+        stopsLock.lock();
+        try {
+            indexed = stops;
+            if (indexed != null && indexed.etag().equals(payload.etag())) {
+                return indexed.grid();
+            }
+            List<StopFeature> features = parseStops(transportLineService.getCachedLineData("stops"));
+            GridIndex<StopFeature> grid = GridIndex.build(features, SpatialIndexService::stopLatitude,
+                    SpatialIndexService::stopLongitude, cellSize);
+            this.stops = new IndexedStops(payload.etag(), grid);
+            return grid;
+        } finally {
+            stopsLock.unlock();
+        }
+    }
+
+    private List<StopFeature> parseStops(TransportLineService.LineData lineData) {
+        if (!"OK".equals(lineData.status())) {
+            return List.of();
+        }
+        try {
+            StopCollection collection = objectMapper.readValue(lineData.geojson(), StopCollection.class);
+            if (collection.features() == null) {
+                return List.of();
+            }
+            // Features without a point can't be placed on the grid
+            return collection.features().stream()
+                    .filter(f -> f.geometry() != null && f.geometry().coordinates() != null
+                            && f.geometry().coordinates().length >= 2)
+                    .toList();
+        } catch (Exception e) {
+            System.err.println("Failed to parse stops: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    // GeoJSON points are [longitude, latitude]
+    private static double stopLatitude(StopFeature stop) {
+        return stop.geometry().coordinates()[1];
+    }
+
+    private static double stopLongitude(StopFeature stop) {
+        return stop.geometry().coordinates()[0];
+    }
+}
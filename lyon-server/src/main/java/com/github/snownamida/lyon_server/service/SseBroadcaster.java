@@ -0,0 +1,106 @@
+package com.github.snownamida.lyon_server.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Subscribers of one Server-Sent Events stream. Each one is written to, in order, by its own virtual thread,
+// so broadcasting never blocks the caller (the refresher, a tick) and a client with a full socket only delays
+// itself. A subscriber that hasn't caught up for sendTimeoutMs is dropped; its client reconnects.
+final class SseBroadcaster {
+
+    private final class Subscriber {
+
+        private final SseEmitter emitter = emitters.get();
+        private final ExecutorService writer = Executors.newSingleThreadExecutor(Thread.ofVirtual().factory());
+        private final AtomicInteger pending = new AtomicInteger();
+        // Since when events have been waiting on this client, 0 once it has caught up
+        private volatile long behindSince;
+
+        void send(String name, String payload) {
+            if (pending.getAndIncrement() == 0) {
+                behindSince = System.currentTimeMillis();
+            }
+            try {
+                writer.execute(() -> {
+                    try {
+                        emitter.send(SseEmitter.event().name(name).data(payload));
+                    } catch (Exception e) {
+                        // Client went away, the container completes the emitter for us
+                        remove(this);
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            behindSince = 0;
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Already removed
+            }
+        }
+
+        boolean stuck(long now) {
+            long since = behindSince;
+            return since != 0 && now - since > sendTimeoutMs && pending.get() > 0;
+        }
+    }
+
+    private final Supplier<SseEmitter> emitters;
+    private final long sendTimeoutMs;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    SseBroadcaster(long timeoutMs, long sendTimeoutMs) {
+        this(() -> new SseEmitter(timeoutMs), sendTimeoutMs);
+    }
+
+    SseBroadcaster(Supplier<SseEmitter> emitters, long sendTimeoutMs) {
+        this.emitters = emitters;
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
+    // The first event is queued before anything broadcast after it
+    SseEmitter subscribe(String name, String payload) {
+        Subscriber subscriber = new Subscriber();
+        subscriber.emitter.onCompletion(() -> remove(subscriber));
+        subscriber.emitter.onTimeout(() -> remove(subscriber));
+        subscriber.emitter.onError(e -> remove(subscriber));
+        subscribers.add(subscriber);
+        if (payload != null) {
+            subscriber.send(name, payload);
+        }
+        return subscriber.emitter;
+    }
+
+    void broadcast(String name, String payload) {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.stuck(now)) {
+                remove(subscriber);
+                // Completing waits for the stuck send to let go of the emitter, so not on this thread
+                Thread.ofVirtual().start(subscriber.emitter::complete);
+            } else {
+                subscriber.send(name, payload);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return subscribers.isEmpty();
+    }
+
+    int size() {
+        return subscribers.size();
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.writer.shutdownNow();
+        }
+    }
+}
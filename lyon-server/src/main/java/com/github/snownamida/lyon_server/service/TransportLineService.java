@@ -1,12 +1,49 @@
 package com.github.snownamida.lyon_server.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.FilePayload;
+import com.github.snownamida.lyon_server.model.Payload;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 @Service
 public class TransportLineService {
@@ -14,57 +51,395 @@ public class TransportLineService {
     public record LineData(String geojson, String status) {
     }
 
+    // A layer stored in the cache directory, with what upstream told us to revalidate it. After a failed
+    // revalidation, upstream isn't asked again before retryAfter.
+    private record StoredLayer(FilePayload payload, String upstreamEtag, String upstreamLastModified,
+            long fetchedAt, long retryAfter) {
+
+        StoredLayer(FilePayload payload, String upstreamEtag, String upstreamLastModified, long fetchedAt) {
+            this(payload, upstreamEtag, upstreamLastModified, fetchedAt, 0);
+        }
+    }
+
+    private record FailedLoad(EncodedPayload payload, long until) {
+    }
+
+    private static final String EMPTY_COLLECTION = "{\"type\":\"FeatureCollection\",\"features\":[]}";
+
     private final Map<String, String> lineUrls = new HashMap<>();
-    private final Map<String, LineData> cachedLineData = new HashMap<>();
+    private final Map<String, StoredLayer> storedLayers = new ConcurrentHashMap<>();
+    // The version each layer had before its current one, deleted on the next replacement
+    private final Map<String, FilePayload> retiredVersions = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Payload>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, FailedLoad> failures = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> circuits = new HashMap<>();
     private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final TaskExecutor taskExecutor;
+    private final Path cacheDir;
+    private final long ttlMs;
+    private final long failureTtlMs;
+    private final MeterRegistry meterRegistry;
+    private final UpstreamResilience resilience;
 
     public TransportLineService(
             @Value("${grandlyon.lines.metro}") String metroUrl,
             @Value("${grandlyon.lines.tram}") String tramUrl,
             @Value("${grandlyon.lines.bus}") String busUrl,
             @Value("${grandlyon.lines.rhonexpress}") String rhonexpressUrl,
-            @Value("${grandlyon.lines.stops}") String stopsUrl) {
+            @Value("${grandlyon.lines.stops}") String stopsUrl,
+            @Value("${grandlyon.lines.cache-dir:${java.io.tmpdir}/lyon-lines}") String cacheDir,
+            @Value("${grandlyon.lines.ttl-ms:86400000}") long ttlMs,
+            @Value("${grandlyon.lines.failure-ttl-ms:30000}") long failureTtlMs,
+            ObjectMapper objectMapper,
+            @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+            RestTemplateBuilder restTemplateBuilder,
+            UpstreamResilience resilience,
+            MeterRegistry meterRegistry) {
         this.lineUrls.put("metro", metroUrl);
         this.lineUrls.put("tram", tramUrl);
         this.lineUrls.put("bus", busUrl);
         this.lineUrls.put("rhonexpress", rhonexpressUrl);
         this.lineUrls.put("stops", stopsUrl);
-        this.restTemplate = new RestTemplate();
+        this.restTemplate = restTemplateBuilder.build();
+        this.resilience = resilience;
+        lineUrls.keySet().forEach(type -> circuits.put(type, resilience.circuitBreaker(type)));
+        this.objectMapper = objectMapper;
+        this.taskExecutor = taskExecutor;
+        this.cacheDir = Path.of(cacheDir);
+        this.ttlMs = ttlMs;
+        this.failureTtlMs = failureTtlMs;
+        this.meterRegistry = meterRegistry;
+        loadStoredLayers();
     }
 
-    // Removed PostConstruct to avoid OOM on startup for large files
+    // Removed PostConstruct to avoid OOM on startup for large files.
+    // Layers kept on disk by a previous run are picked up here instead; only their metadata is read.
+    private void loadStoredLayers() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        for (String type : lineUrls.keySet()) {
+            Path metadataFile = cacheDir.resolve(type + ".properties");
+            if (!Files.exists(metadataFile)) {
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(metadataFile)) {
+                Properties metadata = new Properties();
+                metadata.load(in);
+                String etag = metadata.getProperty("etag");
+                FilePayload payload = new FilePayload(bodyFile(type, etag), gzipFile(type, etag), etag);
+                if (Files.exists(payload.body()) && Files.exists(payload.gzip())) {
+                    storedLayers.put(type, new StoredLayer(payload, metadata.getProperty("upstreamEtag"),
+                            metadata.getProperty("upstreamLastModified"),
+                            Long.parseLong(metadata.getProperty("fetchedAt", "0"))));
+                    System.out.println(type + " data loaded from " + cacheDir);
+                }
+            } catch (Exception e) {
+                System.err.println("Ignoring unreadable cache entry for " + type + ": " + e.getMessage());
+            }
+        }
 
-    private synchronized LineData fetchLineData(String type) {
-        // Double-check if it was fetched while waiting for lock
-        if (cachedLineData.containsKey(type)) {
-            return cachedLineData.get(type);
+        // Drop interrupted downloads and versions nothing points to anymore. The directory may be shared, so
+        // only names written here are considered: <type>-<md5>.json(.gz) and the <type><n>(.gz).tmp in between.
+        Pattern owned = Pattern.compile(lineUrls.keySet().stream().map(Pattern::quote)
+                .collect(Collectors.joining("|", "(", ")(-[0-9a-f]{32}\\.json(\\.gz)?|\\d+(\\.gz)?\\.tmp)")));
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            Set<Path> live = new HashSet<>();
+            storedLayers.values().forEach(layer -> {
+                live.add(layer.payload().body());
+                live.add(layer.payload().gzip());
+            });
+            files.filter(file -> owned.matcher(file.getFileName().toString()).matches())
+                    .filter(file -> !live.contains(file))
+                    .forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Failed to clean line cache: " + e.getMessage());
         }
+    }
+
+    // Single flight per layer: concurrent callers share one upstream request for the same layer,
+    // while different layers load in parallel. The first caller runs the fetch on the given executor.
+    private CompletableFuture<Payload> load(String type, Executor executor) {
+        CompletableFuture<Payload> created = new CompletableFuture<>();
+        CompletableFuture<Payload> existing = inFlight.putIfAbsent(type, created);
+        if (existing != null) {
+            return existing;
+        }
+        executor.execute(() -> {
+            try {
+                created.complete(fetchLineData(type));
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                inFlight.remove(type, created);
+            }
+        });
+        return created;
+    }
 
+    private Payload fetchLineData(String type) {
+        StoredLayer previous = storedLayers.get(type);
+        CircuitBreaker circuit = circuits.get(type);
+        if (!circuit.allowRequest()) {
+            resilience.countSkipped(type);
+            if (previous != null) {
+                return previous.payload();
+            }
+            FailedLoad failed = failures.get(type);
+            return failed != null ? failed.payload() : encode(new LineData(EMPTY_COLLECTION, "API_DOWN"));
+        }
         String url = lineUrls.get(type);
-        if (url == null)
-            return new LineData("{\"type\":\"FeatureCollection\",\"features\":[]}", "NOT_FOUND");
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            System.out.println((previous == null ? "Fetching " : "Revalidating ") + type
+                    + " data from Grand Lyon: " + url);
+            StoredLayer layer = download(type, previous);
+            circuit.onSuccess();
+            failures.remove(type);
+            outcome = "ok";
+            if (previous == null) {
+                System.out.println(type + " data cached successfully in " + cacheDir);
+            } else if (layer.payload().equals(previous.payload())) {
+                System.out.println(type + " data still up to date.");
+                outcome = "not_modified";
+            } else {
+                System.out.println(type + " data refreshed.");
+            }
+            return layer.payload();
+        } catch (Exception e) {
+            circuit.onFailure();
+            String status;
+            if (e instanceof org.springframework.web.client.ResourceAccessException) {
+                System.err.println("API Timeout or Connection Refused: " + e.getMessage());
+                status = "API_DOWN";
+                outcome = "api_down";
+            } else {
+                System.err.println("Failed to fetch " + type + " data: " + e.getMessage());
+                status = "ERROR: " + e.getMessage();
+            }
+            // A stale copy beats an error. Either way the failure is remembered for a while, so an outage doesn't
+            // send every request upstream.
+            if (previous != null) {
+                storedLayers.put(type, new StoredLayer(previous.payload(), previous.upstreamEtag(),
+                        previous.upstreamLastModified(), previous.fetchedAt(),
+                        System.currentTimeMillis() + failureTtlMs));
+                return previous.payload();
+            }
+            EncodedPayload failure = encode(new LineData(EMPTY_COLLECTION, status));
+            failures.put(type, new FailedLoad(failure, System.currentTimeMillis() + failureTtlMs));
+            return failure;
+        } finally {
+            sample.stop(Timer.builder("grandlyon.upstream.fetch")
+                    .description("Requests to the Grand Lyon API")
+                    .tag("feed", type)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    // Streams the layer straight into the cache directory, already wrapped as a LineData response.
+    // With a previous version, the request is conditional and a 304 only refreshes its timestamp.
+    private StoredLayer download(String type, StoredLayer previous) {
+        return restTemplate.execute(URI.create(lineUrls.get(type)), HttpMethod.GET, request -> {
+            if (previous != null && previous.upstreamEtag() != null) {
+                request.getHeaders().set(HttpHeaders.IF_NONE_MATCH, previous.upstreamEtag());
+            }
+            if (previous != null && previous.upstreamLastModified() != null) {
+                request.getHeaders().set(HttpHeaders.IF_MODIFIED_SINCE, previous.upstreamLastModified());
+            }
+        }, response -> {
+            long now = System.currentTimeMillis();
+            if (previous != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                return store(type, new StoredLayer(previous.payload(), previous.upstreamEtag(),
+                        previous.upstreamLastModified(), now));
+            }
+            FilePayload payload = writeLayer(type, response.getBody());
+            return store(type, new StoredLayer(payload, response.getHeaders().getETag(),
+                    response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED), now));
+        });
+    }
+
+    // Stores a layer read from elsewhere than upstream, e.g. the data-example fixtures in benchmarks
+    FilePayload importLayer(String type, InputStream geojson) throws IOException {
+        return store(type, new StoredLayer(writeLayer(type, geojson), null, null, System.currentTimeMillis()))
+                .payload();
+    }
 
+    private FilePayload writeLayer(String type, InputStream upstream) throws IOException {
+        Files.createDirectories(cacheDir);
+        Path body = Files.createTempFile(cacheDir, type, ".tmp");
+        Path gzip = Files.createTempFile(cacheDir, type, ".gz.tmp");
+        MessageDigest md5 = md5();
+
+        try (OutputStream bodyOut = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(body)), md5);
+                OutputStream gzipOut = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(gzip)));
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(new TeeOutputStream(bodyOut,
+                        gzipOut));
+                Reader geojson = new InputStreamReader(upstream, StandardCharsets.UTF_8)) {
+            // Same bytes Jackson would produce for new LineData(geojson, "OK"), without the String in between
+            generator.writeStartObject();
+            generator.writeFieldName("geojson");
+            generator.writeString(geojson, -1);
+            generator.writeStringField("status", "OK");
+            generator.writeEndObject();
+        } catch (IOException e) {
+            Files.deleteIfExists(body);
+            Files.deleteIfExists(gzip);
+            throw e;
+        }
+
+        String etag = HexFormat.of().formatHex(md5.digest());
+        FilePayload payload = new FilePayload(bodyFile(type, etag), gzipFile(type, etag), etag);
+        Files.move(body, payload.body(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(gzip, payload.gzip(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return payload;
+    }
+
+    private StoredLayer store(String type, StoredLayer layer) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty("etag", layer.payload().etag());
+        metadata.setProperty("fetchedAt", Long.toString(layer.fetchedAt()));
+        if (layer.upstreamEtag() != null) {
+            metadata.setProperty("upstreamEtag", layer.upstreamEtag());
+        }
+        if (layer.upstreamLastModified() != null) {
+            metadata.setProperty("upstreamLastModified", layer.upstreamLastModified());
+        }
+        Path tmp = Files.createTempFile(cacheDir, type, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            metadata.store(out, type + " layer");
+        }
+        Files.move(tmp, cacheDir.resolve(type + ".properties"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        StoredLayer replaced = storedLayers.put(type, layer);
+        // Requests may have been handed the replaced version without having opened it yet, so it stays on disk
+        // until it is replaced in turn; the one before it goes now.
+        if (replaced != null && !replaced.payload().equals(layer.payload())) {
+            FilePayload retired = retiredVersions.put(type, replaced.payload());
+            if (retired != null && !retired.equals(layer.payload())) {
+                Files.deleteIfExists(retired.body());
+                Files.deleteIfExists(retired.gzip());
+            }
+        }
+        return layer;
+    }
+
+    // Every version gets its own file names, so a response already being sent from a file is never overwritten
+    private Path bodyFile(String type, String etag) {
+        return cacheDir.resolve(type + "-" + etag + ".json");
+    }
+
+    private Path gzipFile(String type, String etag) {
+        return cacheDir.resolve(type + "-" + etag + ".json.gz");
+    }
+
+    private EncodedPayload encode(LineData lineData) {
         try {
-            System.out.println("Fetching " + type + " data from Grand Lyon: " + url);
-            String data = restTemplate.getForObject(URI.create(url), String.class);
-            LineData lineData = new LineData(data, "OK");
-            cachedLineData.put(type, lineData);
-            System.out.println(type + " data cached successfully.");
-            return lineData;
-        } catch (org.springframework.web.client.ResourceAccessException e) {
-            System.err.println("API Timeout or Connection Refused: " + e.getMessage());
-            return new LineData("{\"type\":\"FeatureCollection\",\"features\":[]}", "API_DOWN");
+            return EncodedPayload.of(objectMapper.writeValueAsBytes(lineData));
         } catch (Exception e) {
-            System.err.println("Failed to fetch " + type + " data: " + e.getMessage());
-            return new LineData("{\"type\":\"FeatureCollection\",\"features\":[]}", "ERROR: " + e.getMessage());
+            throw new IllegalStateException("Failed to encode " + lineData.status() + " line data", e);
         }
     }
 
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean hasLayer(String type) {
+        return lineUrls.containsKey(type);
+    }
+
+    public Payload getLinePayload(String type) {
+        if (!lineUrls.containsKey(type)) {
+            return encode(new LineData(EMPTY_COLLECTION, "NOT_FOUND"));
+        }
+        StoredLayer stored = storedLayers.get(type);
+        if (stored != null) {
+            // Stale layers keep being served while a background request asks upstream whether they changed
+            long now = System.currentTimeMillis();
+            if (now - stored.fetchedAt() > ttlMs) {
+                countRequest(type, "stale");
+                if (now >= stored.retryAfter()) {
+                    load(type, taskExecutor);
+                }
+            } else {
+                countRequest(type, "hit");
+            }
+            return stored.payload();
+        }
+        FailedLoad failed = failures.get(type);
+        if (failed != null && failed.until() > System.currentTimeMillis()) {
+            countRequest(type, "failure_cached");
+            return failed.payload();
+        }
+        countRequest(type, "miss");
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return load(type, Runnable::run).join();
+        } finally {
+            sample.stop(Timer.builder("grandlyon.lines.load.wait")
+                    .description("Time requests were blocked on a layer load, their own or a concurrent one")
+                    .tag("layer", type)
+                    .register(meterRegistry));
+        }
+    }
+
+    private void countRequest(String type, String result) {
+        meterRegistry.counter("grandlyon.lines.requests", "layer", type, "result", result).increment();
+    }
+
     public LineData getCachedLineData(String type) {
-        LineData data = cachedLineData.get(type);
-        if (data == null) {
-            return fetchLineData(type);
+        try {
+            return switch (getLinePayload(type)) {
+                case EncodedPayload encoded -> objectMapper.readValue(encoded.body(), LineData.class);
+                case FilePayload file -> objectMapper.readValue(file.body().toFile(), LineData.class);
+            };
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to decode " + type + " line data", e);
+        }
+    }
+
+    private static final class TeeOutputStream extends OutputStream {
+
+        private final OutputStream first;
+        private final OutputStream second;
+
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                first.close();
+            } finally {
+                second.close();
+            }
         }
-        return data;
     }
 }
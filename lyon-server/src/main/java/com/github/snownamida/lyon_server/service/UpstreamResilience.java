@@ -0,0 +1,41 @@
+package com.github.snownamida.lyon_server.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Circuit breaker settings shared by every feed of the Grand Lyon API. Timeouts live with the HTTP client,
+// see UpstreamHttpConfig.
+@Component
+public class UpstreamResilience {
+
+    private final int failureThreshold;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final MeterRegistry meterRegistry;
+
+    public UpstreamResilience(@Value("${grandlyon.upstream.failure-threshold:3}") int failureThreshold,
+            @Value("${grandlyon.upstream.backoff-initial-ms:5000}") long initialBackoffMs,
+            @Value("${grandlyon.upstream.backoff-max-ms:300000}") long maxBackoffMs,
+            MeterRegistry meterRegistry) {
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.meterRegistry = meterRegistry;
+    }
+
+    CircuitBreaker circuitBreaker(String feed) {
+        CircuitBreaker breaker = new CircuitBreaker(feed, failureThreshold, initialBackoffMs, maxBackoffMs,
+                System::currentTimeMillis);
+        Gauge.builder("grandlyon.upstream.circuit", breaker, b -> b.state().ordinal())
+                .description("Circuit breaker state: 0 closed, 1 half open, 2 open")
+                .tag("feed", feed)
+                .register(meterRegistry);
+        return breaker;
+    }
+
+    void countSkipped(String feed) {
+        meterRegistry.counter("grandlyon.upstream.skipped", "feed", feed).increment();
+    }
+}
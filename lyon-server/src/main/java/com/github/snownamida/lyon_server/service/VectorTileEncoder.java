@@ -0,0 +1,174 @@
+package com.github.snownamida.lyon_server.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Minimal Mapbox Vector Tile 2.1 writer for a single layer of points and line strings.
+// Geometry is expected in tile coordinates, already clipped and rounded by the caller.
+// See https://github.com/mapbox/vector-tile-spec/tree/master/2.1 for the protobuf layout.
+public final class VectorTileEncoder {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private static final int GEOM_POINT = 1;
+    private static final int GEOM_LINESTRING = 2;
+
+    private static final int CMD_MOVE_TO = 1;
+    private static final int CMD_LINE_TO = 2;
+
+    private final String layerName;
+    private final int extent;
+
+    private final List<String> keys = new ArrayList<>();
+    private final Map<String, Integer> keyIndex = new HashMap<>();
+    private final List<Object> values = new ArrayList<>();
+    private final Map<Object, Integer> valueIndex = new HashMap<>();
+    private final ByteArrayOutputStream features = new ByteArrayOutputStream();
+    private long nextId = 1;
+
+    public VectorTileEncoder(String layerName, int extent) {
+        this.layerName = layerName;
+        this.extent = extent;
+    }
+
+    public void addPoint(int x, int y, Map<String, Object> properties) {
+        int[] geometry = { command(CMD_MOVE_TO, 1), zigZag(x), zigZag(y) };
+        addFeature(GEOM_POINT, geometry, properties);
+    }
+
+    // Each part is a flattened x0,y0,x1,y1... run of at least two points
+    public void addLineString(List<int[]> parts, Map<String, Object> properties) {
+        int size = 0;
+        for (int[] part : parts) {
+            size += 2 + part.length;
+        }
+        int[] geometry = new int[size];
+        int i = 0;
+        int cursorX = 0;
+        int cursorY = 0;
+        for (int[] part : parts) {
+            geometry[i++] = command(CMD_MOVE_TO, 1);
+            geometry[i++] = zigZag(part[0] - cursorX);
+            geometry[i++] = zigZag(part[1] - cursorY);
+            cursorX = part[0];
+            cursorY = part[1];
+            geometry[i++] = command(CMD_LINE_TO, part.length / 2 - 1);
+            for (int p = 2; p < part.length; p += 2) {
+                geometry[i++] = zigZag(part[p] - cursorX);
+                geometry[i++] = zigZag(part[p + 1] - cursorY);
+                cursorX = part[p];
+                cursorY = part[p + 1];
+            }
+        }
+        addFeature(GEOM_LINESTRING, geometry, properties);
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream layer = new ByteArrayOutputStream();
+        writeTag(layer, 15, WIRE_VARINT);
+        writeVarint(layer, 2);
+        writeString(layer, 1, layerName);
+        layer.writeBytes(features.toByteArray());
+        for (String key : keys) {
+            writeString(layer, 3, key);
+        }
+        for (Object value : values) {
+            writeBytes(layer, 4, encodeValue(value));
+        }
+        writeTag(layer, 5, WIRE_VARINT);
+        writeVarint(layer, extent);
+
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        writeBytes(tile, 3, layer.toByteArray());
+        return tile.toByteArray();
+    }
+
+    private void addFeature(int type, int[] geometry, Map<String, Object> properties) {
+        ByteArrayOutputStream feature = new ByteArrayOutputStream();
+        writeTag(feature, 1, WIRE_VARINT);
+        writeVarint(feature, nextId++);
+
+        ByteArrayOutputStream tags = new ByteArrayOutputStream();
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            if (property.getValue() == null) {
+                continue;
+            }
+            writeVarint(tags, keyIndex.computeIfAbsent(property.getKey(), k -> {
+                keys.add(k);
+                return keys.size() - 1;
+            }));
+            writeVarint(tags, valueIndex.computeIfAbsent(property.getValue(), v -> {
+                values.add(v);
+                return values.size() - 1;
+            }));
+        }
+        writeBytes(feature, 2, tags.toByteArray());
+
+        writeTag(feature, 3, WIRE_VARINT);
+        writeVarint(feature, type);
+
+        ByteArrayOutputStream packed = new ByteArrayOutputStream(geometry.length * 2);
+        for (int value : geometry) {
+            writeVarint(packed, value & 0xffffffffL);
+        }
+        writeBytes(feature, 4, packed.toByteArray());
+
+        writeBytes(features, 2, feature.toByteArray());
+    }
+
+    private static byte[] encodeValue(Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (value instanceof Boolean b) {
+            writeTag(out, 7, WIRE_VARINT);
+            writeVarint(out, b ? 1 : 0);
+        } else if (value instanceof Integer || value instanceof Long) {
+            long l = ((Number) value).longValue();
+            writeTag(out, 6, WIRE_VARINT);
+            writeVarint(out, (l << 1) ^ (l >> 63));
+        } else if (value instanceof Number n) {
+            writeTag(out, 3, 1);
+            long bits = Double.doubleToLongBits(n.doubleValue());
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (bits >>> (8 * i)) & 0xff);
+            }
+        } else {
+            writeString(out, 1, value.toString());
+        }
+        return out.toByteArray();
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, int field, String value) {
+        writeBytes(out, field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeTag(out, field, WIRE_LENGTH_DELIMITED);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeTag(ByteArrayOutputStream out, int field, int wireType) {
+        writeVarint(out, ((long) field << 3) | wireType);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,389 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.Payload;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+public class VectorTileService {
+
+    public static final int EXTENT = 4096;
+    // Tile units drawn around each tile so line joins and stop markers aren't cut at the edges
+    private static final int BUFFER = 64;
+    // Half a screen pixel on a 256 px tile; a constant tolerance in tile space means coarser
+    // simplification in world space at low zoom levels
+    private static final double SIMPLIFY_TOLERANCE = 8.0;
+    // Below this zoom the stop layer would be thousands of overlapping dots
+    private static final int MIN_STOP_ZOOM = 13;
+    public static final int MAX_ZOOM = 20;
+
+    private static final Set<String> LINE_PROPERTIES = Set.of("ligne", "code_ligne", "sens", "nom_trace", "couleur");
+    private static final Set<String> STOP_PROPERTIES = Set.of("id", "nom", "desserte", "pmr");
+
+    // Geometry in Web Mercator units, [0, 1] across the world, parsed once per layer version
+    private record TileFeature(boolean point, List<double[]> parts, double minX, double minY, double maxX,
+            double maxY, Map<String, Object> properties) {
+    }
+
+    private record TileLayer(String etag, List<TileFeature> features) {
+    }
+
+    private final TransportLineService transportLineService;
+    private final ObjectMapper objectMapper;
+    private final Map<String, TileLayer> layers = new ConcurrentHashMap<>();
+    // One layer parsed into tile geometry at a time, and only once per version
+    private final ReentrantLock parseLock = new ReentrantLock();
+    private final Map<String, EncodedPayload> tileCache;
+    private final MeterRegistry meterRegistry;
+
+    public VectorTileService(TransportLineService transportLineService,
+            ObjectMapper objectMapper,
+            @Value("${grandlyon.tiles.cache-size:1024}") int cacheSize,
+            MeterRegistry meterRegistry) {
+        this.transportLineService = transportLineService;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.tileCache = new LinkedHashMap<>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EncodedPayload> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // Returns null for layers TransportLineService doesn't know about
+    public EncodedPayload getTile(String layerName, int z, int x, int y) {
+        if (!transportLineService.hasLayer(layerName)) {
+            return null;
+        }
+        TileLayer layer = layer(layerName);
+        // The layer etag is part of the key, so tiles of a refreshed layer are never served stale
+        String key = layerName + "/" + layer.etag() + "/" + z + "/" + x + "/" + y;
+        synchronized (tileCache) {
+            EncodedPayload cached = tileCache.get(key);
+            if (cached != null) {
+                meterRegistry.counter("grandlyon.tiles.requests", "layer", layerName, "result", "hit").increment();
+                return cached;
+            }
+        }
+        meterRegistry.counter("grandlyon.tiles.requests", "layer", layerName, "result", "miss").increment();
+        EncodedPayload tile = EncodedPayload.of(render(layerName, layer, z, x, y));
+        synchronized (tileCache) {
+            tileCache.put(key, tile);
+        }
+        return tile;
+    }
+
+    private TileLayer layer(String layerName) {
+        Payload payload = transportLineService.getLinePayload(layerName);
+        TileLayer layer = layers.get(layerName);
+        if (layer != null && layer.etag().equals(payload.etag())) {
+            return layer;
+        }
+        // Parsing a large layer twice in parallel would only waste memory
+        parseLock.lock();
+        try {
+            layer = layers.get(layerName);
+            if (layer == null || !layer.etag().equals(payload.etag())) {
+                layer = new TileLayer(payload.etag(), parse(transportLineService.getCachedLineData(layerName)));
+                layers.put(layerName, layer);
+            }
+            return layer;
+        } finally {
+            parseLock.unlock();
+        }
+    }
+
+    private byte[] render(String layerName, TileLayer layer, int z, int x, int y) {
+        VectorTileEncoder encoder = new VectorTileEncoder(layerName, EXTENT);
+        double scale = 1L << z;
+        double buffer = (double) BUFFER / EXTENT;
+        double minX = (x - buffer) / scale;
+        double maxX = (x + 1 + buffer) / scale;
+        double minY = (y - buffer) / scale;
+        double maxY = (y + 1 + buffer) / scale;
+
+        for (TileFeature feature : layer.features()) {
+            if (feature.maxX() < minX || feature.minX() > maxX || feature.maxY() < minY || feature.minY() > maxY) {
+                continue;
+            }
+            if (feature.point()) {
+                if (z < MIN_STOP_ZOOM) {
+                    continue;
+                }
+                double[] point = feature.parts().get(0);
+                encoder.addPoint(toTile(point[0], scale, x), toTile(point[1], scale, y), feature.properties());
+                continue;
+            }
+            List<int[]> parts = new ArrayList<>();
+            for (double[] part : feature.parts()) {
+                double[] tileCoords = new double[part.length];
+                for (int i = 0; i < part.length; i += 2) {
+                    tileCoords[i] = (part[i] * scale - x) * EXTENT;
+                    tileCoords[i + 1] = (part[i + 1] * scale - y) * EXTENT;
+                }
+                for (double[] clipped : clip(tileCoords, -BUFFER, EXTENT + BUFFER)) {
+                    int[] simplified = round(simplify(clipped, SIMPLIFY_TOLERANCE));
+                    if (simplified.length >= 4) {
+                        parts.add(simplified);
+                    }
+                }
+            }
+            if (!parts.isEmpty()) {
+                encoder.addLineString(parts, feature.properties());
+            }
+        }
+        return encoder.encode();
+    }
+
+    private static int toTile(double mercator, double scale, int tile) {
+        return (int) Math.round((mercator * scale - tile) * EXTENT);
+    }
+
+    // Splits a polyline into the runs that fall inside the square [min, max], clipping each segment (Liang-Barsky)
+    static List<double[]> clip(double[] line, double min, double max) {
+        List<double[]> runs = new ArrayList<>();
+        List<Double> run = new ArrayList<>();
+        for (int i = 0; i + 3 < line.length; i += 2) {
+            double x0 = line[i], y0 = line[i + 1], x1 = line[i + 2], y1 = line[i + 3];
+            double dx = x1 - x0, dy = y1 - y0;
+            double t0 = 0, t1 = 1;
+            double[] p = { -dx, dx, -dy, dy };
+            double[] q = { x0 - min, max - x0, y0 - min, max - y0 };
+            boolean visible = true;
+            for (int k = 0; k < 4 && visible; k++) {
+                if (p[k] == 0) {
+                    visible = q[k] >= 0;
+                } else {
+                    double t = q[k] / p[k];
+                    if (p[k] < 0) {
+                        t0 = Math.max(t0, t);
+                    } else {
+                        t1 = Math.min(t1, t);
+                    }
+                    visible = t0 <= t1;
+                }
+            }
+            if (!visible) {
+                flush(run, runs);
+                continue;
+            }
+            if (run.isEmpty() || t0 > 0) {
+                flush(run, runs);
+                run.add(x0 + t0 * dx);
+                run.add(y0 + t0 * dy);
+            }
+            run.add(x0 + t1 * dx);
+            run.add(y0 + t1 * dy);
+            if (t1 < 1) {
+                flush(run, runs);
+            }
+        }
+        flush(run, runs);
+        return runs;
+    }
+
+    private static void flush(List<Double> run, List<double[]> runs) {
+        if (run.size() >= 4) {
+            double[] coords = new double[run.size()];
+            for (int i = 0; i < coords.length; i++) {
+                coords[i] = run.get(i);
+            }
+            runs.add(coords);
+        }
+        run.clear();
+    }
+
+    // Douglas-Peucker on a flattened x0,y0,x1,y1... polyline
+    static double[] simplify(double[] line, double tolerance) {
+        int points = line.length / 2;
+        if (points <= 2) {
+            return line;
+        }
+        boolean[] keep = new boolean[points];
+        keep[0] = true;
+        keep[points - 1] = true;
+        int[] stack = new int[points * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = points - 1;
+        double toleranceSquared = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxDistance = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = segmentDistanceSquared(line, i, first, last);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxDistance > toleranceSquared) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        double[] result = new double[kept * 2];
+        int j = 0;
+        for (int i = 0; i < points; i++) {
+            if (keep[i]) {
+                result[j++] = line[i * 2];
+                result[j++] = line[i * 2 + 1];
+            }
+        }
+        return result;
+    }
+
+    private static double segmentDistanceSquared(double[] line, int point, int first, int last) {
+        double px = line[point * 2], py = line[point * 2 + 1];
+        double ax = line[first * 2], ay = line[first * 2 + 1];
+        double bx = line[last * 2], by = line[last * 2 + 1];
+        double dx = bx - ax, dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        double cx = ax + t * dx - px, cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+
+    // Rounds to integer tile units, dropping points that collapse onto the previous one
+    private static int[] round(double[] line) {
+        int[] rounded = new int[line.length];
+        int size = 0;
+        for (int i = 0; i < line.length; i += 2) {
+            int x = (int) Math.round(line[i]);
+            int y = (int) Math.round(line[i + 1]);
+            if (size >= 2 && rounded[size - 2] == x && rounded[size - 1] == y) {
+                continue;
+            }
+            rounded[size++] = x;
+            rounded[size++] = y;
+        }
+        return Arrays.copyOf(rounded, size);
+    }
+
+    // Streams the features one at a time so a large layer is never held as a single JsonNode tree
+    private List<TileFeature> parse(TransportLineService.LineData lineData) {
+        List<TileFeature> features = new ArrayList<>();
+        if (!"OK".equals(lineData.status())) {
+            return features;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(lineData.geojson())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return features;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("features".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        TileFeature feature = toFeature(parser.readValueAsTree());
+                        if (feature != null) {
+                            features.add(feature);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to parse layer for tiles: " + e.getMessage());
+        }
+        return features;
+    }
+
+    private static TileFeature toFeature(JsonNode feature) {
+        JsonNode geometry = feature.path("geometry");
+        JsonNode coordinates = geometry.path("coordinates");
+        List<double[]> parts = new ArrayList<>();
+        boolean point = false;
+        switch (geometry.path("type").asText()) {
+            case "Point" -> {
+                point = true;
+                parts.add(project(coordinates));
+            }
+            case "LineString" -> parts.add(projectLine(coordinates));
+            case "MultiLineString" -> coordinates.forEach(line -> parts.add(projectLine(line)));
+            default -> {
+                return null;
+            }
+        }
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (double[] part : parts) {
+            for (int i = 0; i + 1 < part.length; i += 2) {
+                minX = Math.min(minX, part[i]);
+                maxX = Math.max(maxX, part[i]);
+                minY = Math.min(minY, part[i + 1]);
+                maxY = Math.max(maxY, part[i + 1]);
+            }
+        }
+        if (minX > maxX) {
+            return null;
+        }
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        Set<String> wanted = point ? STOP_PROPERTIES : LINE_PROPERTIES;
+        feature.path("properties").fields().forEachRemaining(entry -> {
+            JsonNode value = entry.getValue();
+            if (!wanted.contains(entry.getKey()) || value.isNull()) {
+                return;
+            }
+            if (value.isBoolean()) {
+                properties.put(entry.getKey(), value.booleanValue());
+            } else if (value.isIntegralNumber()) {
+                properties.put(entry.getKey(), value.longValue());
+            } else if (value.isNumber()) {
+                properties.put(entry.getKey(), value.doubleValue());
+            } else if (value.isValueNode()) {
+                properties.put(entry.getKey(), value.asText());
+            }
+        });
+        return new TileFeature(point, parts, minX, minY, maxX, maxY, properties);
+    }
+
+    private static double[] projectLine(JsonNode line) {
+        double[] coords = new double[line.size() * 2];
+        for (int i = 0; i < line.size(); i++) {
+            double[] point = project(line.get(i));
+            coords[i * 2] = point[0];
+            coords[i * 2 + 1] = point[1];
+        }
+        return coords;
+    }
+
+    // [lon, lat] to Web Mercator, both axes in [0, 1] with y growing southwards like tile rows
+    private static double[] project(JsonNode lonLat) {
+        double lon = lonLat.path(0).asDouble();
+        double lat = Math.max(-85.05112878, Math.min(85.05112878, lonLat.path(1).asDouble()));
+        double sin = Math.sin(Math.toRadians(lat));
+        double x = (lon + 180) / 360;
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        return new double[] { x, y };
+    }
+}
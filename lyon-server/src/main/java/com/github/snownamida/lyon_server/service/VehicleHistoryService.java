@@ -0,0 +1,362 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehicleHistory;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Recent positions of every vehicle, kept in one columnar ring buffer of primitives shared by all vehicles.
+// Between keyframes only vehicles that changed get a sample, and each sample links back to the previous
+// one of the same vehicle, so a vehicle's track is walked without scanning the others.
+// Strings (ids, lines, delays) go through dictionaries and cost 4 bytes per sample.
+@Service
+public class VehicleHistoryService {
+
+    // time, latitude, longitude, bearing, vehicle, journey, delay, link to the previous sample
+    static final int SAMPLE_BYTES = 4 + 4 + 4 + 2 + 4 + 4 + 4 + 4;
+
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final double MICRO_DEGREES = 1e6;
+    private static final short NO_BEARING = Short.MIN_VALUE;
+    // Latitude of a sample telling that the vehicle left the feed
+    private static final int GONE = Integer.MIN_VALUE;
+
+    private record Journey(String lineId, String direction, String destinationName, String vehicleStatus,
+            String dataSource) {
+    }
+
+    private record Keyframe(long sequence, int time) {
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int maxSamples;
+    private final long retentionSeconds;
+    private final int keyframeIntervalSeconds;
+    // Sample times are seconds since this instant, so they fit an int
+    private final long baseEpochSecond = Instant.now().getEpochSecond();
+
+    private int[] times = new int[0];
+    private int[] latitudes = new int[0];
+    private int[] longitudes = new int[0];
+    private short[] bearings = new short[0];
+    private int[] vehicles = new int[0];
+    private int[] journeys = new int[0];
+    private int[] delays = new int[0];
+    private int[] previousDistances = new int[0];
+    // Total number of samples ever written, the oldest ones are overwritten once the buffer is full
+    private long written;
+
+    private final Dictionary<String> vehicleIds = new Dictionary<>();
+    private final Dictionary<Journey> journeyValues = new Dictionary<>();
+    private final Dictionary<String> delayValues = new Dictionary<>();
+    // Per vehicle index: last sample written and last refresh it was seen in
+    private long[] latestSample = new long[0];
+    private long[] lastSeenRound = new long[0];
+    private long round;
+    private final ArrayDeque<Keyframe> keyframes = new ArrayDeque<>();
+
+    public VehicleHistoryService(@Value("${grandlyon.history.max-bytes:16777216}") long maxBytes,
+            @Value("${grandlyon.history.retention-hours:6}") long retentionHours,
+            @Value("${grandlyon.history.keyframe-interval-ms:60000}") long keyframeIntervalMs,
+            MeterRegistry meterRegistry) {
+        this.maxSamples = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0, maxBytes / SAMPLE_BYTES));
+        this.retentionSeconds = retentionHours * 3600;
+        this.keyframeIntervalSeconds = (int) Math.max(1, keyframeIntervalMs / 1000);
+
+        Gauge.builder("grandlyon.history.samples", this, VehicleHistoryService::size)
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.history.size", this, service -> (double) service.capacity() * SAMPLE_BYTES)
+                .description("Memory held by the vehicle history columns")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        record(event.snapshot());
+    }
+
+    void record(VehicleData snapshot) {
+        // Failed refreshes say nothing about where vehicles are
+        if (maxSamples == 0 || !"OK".equals(snapshot.apiStatus()) || snapshot.lastFetchTime() == null) {
+            return;
+        }
+        int time = toTime(snapshot.lastFetchTime());
+        lock.writeLock().lock();
+        try {
+            round++;
+            Keyframe lastKeyframe = keyframes.peekLast();
+            boolean keyframe = lastKeyframe == null || time - lastKeyframe.time() >= keyframeIntervalSeconds;
+            if (keyframe) {
+                keyframes.addLast(new Keyframe(written, time));
+            }
+
+            for (VehiclePosition position : snapshot.vehicles()) {
+                int vehicle = vehicleIds.indexOf(position.vehicleId());
+                if (vehicle == latestSample.length) {
+                    latestSample = Arrays.copyOf(latestSample, Math.max(64, vehicle * 2));
+                    lastSeenRound = Arrays.copyOf(lastSeenRound, latestSample.length);
+                    Arrays.fill(latestSample, vehicle, latestSample.length, -1);
+                }
+                lastSeenRound[vehicle] = round;
+
+                int latitude = (int) Math.round(position.latitude() * MICRO_DEGREES);
+                int longitude = (int) Math.round(position.longitude() * MICRO_DEGREES);
+                short bearing = position.bearing() == null ? NO_BEARING
+                        : (short) Math.round(position.bearing() * 10);
+                int journey = journeyValues.indexOf(new Journey(position.lineId(), position.direction(),
+                        position.destinationName(), position.vehicleStatus(), position.dataSource()));
+                int delay = position.delay() == null ? -1 : delayValues.indexOf(position.delay());
+                if (keyframe || !sameAsLatest(vehicle, latitude, longitude, bearing, journey, delay)) {
+                    append(time, vehicle, latitude, longitude, bearing, journey, delay);
+                }
+            }
+
+            // Vehicles that dropped out of the feed get a closing sample
+            for (int vehicle = 0; vehicle < vehicleIds.size(); vehicle++) {
+                if (lastSeenRound[vehicle] != round && isPresent(latestSample[vehicle])) {
+                    append(time, vehicle, GONE, 0, NO_BEARING, -1, -1);
+                }
+            }
+
+            long oldest = oldest();
+            while (!keyframes.isEmpty() && keyframes.peekFirst().sequence() < oldest) {
+                keyframes.removeFirst();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns null for vehicles never seen
+    public VehicleHistory getHistory(String vehicleId, Instant from, Instant to) {
+        lock.readLock().lock();
+        try {
+            int vehicle = vehicleIds.find(vehicleId);
+            if (vehicle < 0) {
+                return null;
+            }
+            int fromTime = Math.max(toTime(from), retentionStart());
+            int toTime = toTime(to);
+            long oldest = oldest();
+            List<VehicleHistory.Point> points = new ArrayList<>();
+            long sequence = latestSample[vehicle];
+            while (sequence >= oldest && sequence >= 0) {
+                int slot = slot(sequence);
+                if (times[slot] < fromTime) {
+                    break;
+                }
+                if (times[slot] <= toTime && latitudes[slot] != GONE) {
+                    points.add(point(slot));
+                }
+                if (previousDistances[slot] == 0) {
+                    break;
+                }
+                sequence -= previousDistances[slot];
+            }
+            Collections.reverse(points);
+            return new VehicleHistory(vehicleId, points);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The vehicles as they were at the given instant, or null when it is outside the recorded history
+    public VehicleData replay(Instant at) {
+        lock.readLock().lock();
+        try {
+            int atTime = toTime(at);
+            if (atTime < retentionStart()) {
+                return null;
+            }
+            Keyframe start = null;
+            for (Iterator<Keyframe> it = keyframes.descendingIterator(); it.hasNext();) {
+                Keyframe keyframe = it.next();
+                if (keyframe.time() <= atTime) {
+                    start = keyframe;
+                    break;
+                }
+            }
+            if (start == null) {
+                return null;
+            }
+
+            // Replay samples from the keyframe on, the last one of each vehicle wins
+            int[] state = new int[vehicleIds.size()];
+            Arrays.fill(state, -1);
+            int lastTime = start.time();
+            for (long sequence = start.sequence(); sequence < written; sequence++) {
+                int slot = slot(sequence);
+                if (times[slot] > atTime) {
+                    break;
+                }
+                state[vehicles[slot]] = latitudes[slot] == GONE ? -1 : slot;
+                lastTime = times[slot];
+            }
+
+            List<VehiclePosition> positions = new ArrayList<>();
+            for (int vehicle = 0; vehicle < state.length; vehicle++) {
+                if (state[vehicle] >= 0) {
+                    positions.add(position(state[vehicle]));
+                }
+            }
+            return new VehicleData(positions, null, toInstant(lastTime), "REPLAY", 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void append(int time, int vehicle, int latitude, int longitude, short bearing, int journey,
+            int delay) {
+        if (written == times.length && times.length < maxSamples) {
+            grow();
+        }
+        long sequence = written++;
+        int slot = slot(sequence);
+        long previous = latestSample[vehicle];
+        times[slot] = time;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        bearings[slot] = bearing;
+        vehicles[slot] = vehicle;
+        journeys[slot] = journey;
+        delays[slot] = delay;
+        previousDistances[slot] = previous >= 0 && sequence - previous < times.length
+                ? (int) (sequence - previous) : 0;
+        latestSample[vehicle] = sequence;
+    }
+
+    // Columns only grow before the first wrap, so slots keep their sequence numbers
+    private void grow() {
+        int capacity = (int) Math.min(maxSamples, Math.max(INITIAL_CAPACITY, (long) times.length * 2));
+        times = Arrays.copyOf(times, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        bearings = Arrays.copyOf(bearings, capacity);
+        vehicles = Arrays.copyOf(vehicles, capacity);
+        journeys = Arrays.copyOf(journeys, capacity);
+        delays = Arrays.copyOf(delays, capacity);
+        previousDistances = Arrays.copyOf(previousDistances, capacity);
+    }
+
+    private boolean sameAsLatest(int vehicle, int latitude, int longitude, short bearing, int journey, int delay) {
+        long sequence = latestSample[vehicle];
+        if (!isPresent(sequence)) {
+            return false;
+        }
+        int slot = slot(sequence);
+        return latitudes[slot] == latitude && longitudes[slot] == longitude && bearings[slot] == bearing
+                && journeys[slot] == journey && delays[slot] == delay;
+    }
+
+    private boolean isPresent(long sequence) {
+        return sequence >= 0 && sequence >= oldest() && latitudes[slot(sequence)] != GONE;
+    }
+
+    private long oldest() {
+        return Math.max(0, written - times.length);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % times.length);
+    }
+
+    private int retentionStart() {
+        return (int) Math.max(Integer.MIN_VALUE, toTime(Instant.now()) - retentionSeconds);
+    }
+
+    private int toTime(Instant instant) {
+        long seconds = instant.getEpochSecond() - baseEpochSecond;
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE, seconds));
+    }
+
+    private Instant toInstant(int time) {
+        return Instant.ofEpochSecond(baseEpochSecond + time);
+    }
+
+    private VehicleHistory.Point point(int slot) {
+        Journey journey = journeyValues.get(journeys[slot]);
+        return new VehicleHistory.Point(toInstant(times[slot]), latitudes[slot] / MICRO_DEGREES,
+                longitudes[slot] / MICRO_DEGREES, bearing(slot), delay(slot), journey.lineId(), journey.direction(),
+                journey.destinationName(), journey.vehicleStatus());
+    }
+
+    private VehiclePosition position(int slot) {
+        Journey journey = journeyValues.get(journeys[slot]);
+        return new VehiclePosition(vehicleIds.get(vehicles[slot]), journey.lineId(), journey.direction(),
+                latitudes[slot] / MICRO_DEGREES, longitudes[slot] / MICRO_DEGREES, delay(slot), null, null,
+                journey.destinationName(), journey.dataSource(), bearing(slot), journey.vehicleStatus());
+    }
+
+    private Double bearing(int slot) {
+        return bearings[slot] == NO_BEARING ? null : bearings[slot] / 10.0;
+    }
+
+    private String delay(int slot) {
+        return delays[slot] < 0 ? null : delayValues.get(delays[slot]);
+    }
+
+    private int size() {
+        lock.readLock().lock();
+        try {
+            return (int) Math.min(written, times.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int capacity() {
+        lock.readLock().lock();
+        try {
+            return times.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Values seen so far, each stored once. The feed only has so many vehicles, lines and delays,
+    // so entries are never evicted.
+    private static final class Dictionary<T> {
+
+        private final Map<T, Integer> indexes = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+
+        int indexOf(T value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indexes.put(value, index);
+            }
+            return index;
+        }
+
+        int find(T value) {
+            return indexes.getOrDefault(value, -1);
+        }
+
+        T get(int index) {
+            return values.get(index);
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+}
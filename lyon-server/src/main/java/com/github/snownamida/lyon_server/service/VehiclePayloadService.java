@@ -0,0 +1,87 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.VehicleData;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+@Service
+public class VehiclePayloadService {
+
+    private record Encoded(long sequence, EncodedPayload payload, EncodedPayload binary) {
+    }
+
+    private final GrandLyonService grandLyonService;
+    private final ObjectMapper objectMapper;
+    private volatile Encoded current;
+
+    public VehiclePayloadService(GrandLyonService grandLyonService, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.grandLyonService = grandLyonService;
+        this.objectMapper = objectMapper;
+
+        Gauge.builder("grandlyon.vehicles.payload.size", this,
+                service -> service.current == null ? 0 : service.current.payload().body().length)
+                .tag("encoding", "identity")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.payload.size", this,
+                service -> service.current == null ? 0 : service.current.payload().gzip().length)
+                .tag("encoding", "gzip")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.binary.size", this,
+                service -> service.current == null ? 0 : service.current.binary().body().length)
+                .tag("encoding", "identity")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("grandlyon.vehicles.binary.size", this,
+                service -> service.current == null ? 0 : service.current.binary().gzip().length)
+                .tag("encoding", "gzip")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // Encoded on the refresher thread, so requests only copy bytes out
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        encode(event.snapshot());
+    }
+
+    public EncodedPayload getSnapshotPayload() {
+        return currentEncoding().payload();
+    }
+
+    // The same snapshot in VehicleWireFormat
+    public EncodedPayload getBinarySnapshotPayload() {
+        return currentEncoding().binary();
+    }
+
+    private Encoded currentEncoding() {
+        VehicleData snapshot = grandLyonService.getVehiclePositions();
+        Encoded encoded = current;
+        if (encoded != null && encoded.sequence() == snapshot.sequence()) {
+            return encoded;
+        }
+        // Nothing encoded yet (startup) or the event hasn't been handled yet
+        return encode(snapshot);
+    }
+
+    private Encoded encode(VehicleData snapshot) {
+        try {
+            Encoded encoded = new Encoded(snapshot.sequence(),
+                    EncodedPayload.of(objectMapper.writeValueAsBytes(snapshot)),
+                    EncodedPayload.of(VehicleWireFormat.encode(snapshot)));
+            Encoded previous = current;
+            if (previous == null || previous.sequence() < snapshot.sequence()) {
+                this.current = encoded;
+            }
+            return encoded;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to encode vehicle snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehicleDelta;
+
+// Published by GrandLyonService every time the refresher swaps in a new snapshot,
+// together with the changes since the previous one
+public record VehicleSnapshotEvent(VehicleData snapshot, VehicleDelta delta) {
+}
@@ -0,0 +1,170 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import com.github.snownamida.lyon_server.model.VehicleStats;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Summary figures for clients that don't need every vehicle. Computed and encoded once per snapshot on the
+// refresher thread: vehicles are bucketed by line and direction into primitive arrays, then each bucket's
+// delays are sorted in place for the percentiles.
+@Service
+public class VehicleStatsService {
+
+    private record Computed(long sequence, VehicleStats stats, EncodedPayload payload) {
+    }
+
+    private final GrandLyonService grandLyonService;
+    private final ObjectMapper objectMapper;
+    private volatile Computed current;
+
+    public VehicleStatsService(GrandLyonService grandLyonService, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.grandLyonService = grandLyonService;
+        this.objectMapper = objectMapper;
+
+        Gauge.builder("grandlyon.stats.lines", this,
+                service -> service.current == null ? 0 : service.current.stats().lines().size())
+                .description("Line and direction groups in the current stats")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        update(event.snapshot());
+    }
+
+    public EncodedPayload getStatsPayload() {
+        VehicleData snapshot = grandLyonService.getVehiclePositions();
+        Computed computed = current;
+        if (computed != null && computed.sequence() == snapshot.sequence()) {
+            return computed.payload();
+        }
+        // Nothing computed yet (startup) or the event hasn't been handled yet
+        return update(snapshot).payload();
+    }
+
+    private Computed update(VehicleData snapshot) {
+        VehicleStats stats = compute(snapshot);
+        try {
+            Computed computed = new Computed(snapshot.sequence(), stats,
+                    EncodedPayload.of(objectMapper.writeValueAsBytes(stats)));
+            Computed previous = current;
+            if (previous == null || previous.sequence() < snapshot.sequence()) {
+                this.current = computed;
+            }
+            return computed;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to encode vehicle stats", e);
+        }
+    }
+
+    static VehicleStats compute(VehicleData snapshot) {
+        List<VehiclePosition> vehicles = snapshot.vehicles();
+        int count = vehicles.size();
+        // Validity is judged at publication: the fetch time, plus the age of stale positions
+        long publishedMillis = snapshot.lastFetchTime() == null ? Long.MIN_VALUE
+                : snapshot.lastFetchTime().toEpochMilli() + snapshot.ageMs();
+
+        Map<String, Integer> groupIndex = new HashMap<>();
+        List<VehiclePosition> groupKeys = new ArrayList<>();
+        int[] groupOf = new int[count];
+        long[] delays = new long[count];
+        int[] vehicleCounts = new int[count];
+        int[] staleCounts = new int[count];
+        int[] onTime = new int[count];
+        int[] late = new int[count];
+        int[] early = new int[count];
+        int[] delayCounts = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            VehiclePosition vehicle = vehicles.get(i);
+            Integer group = groupIndex.putIfAbsent(vehicle.lineId() + '\n' + vehicle.direction(), groupKeys.size());
+            if (group == null) {
+                group = groupKeys.size();
+                groupKeys.add(vehicle);
+            }
+            groupOf[i] = group;
+            vehicleCounts[group]++;
+            if (vehicle.validUntilTime() != null && vehicle.validUntilTime().toEpochMilli() < publishedMillis) {
+                staleCounts[group]++;
+            }
+            long delay = SiriReader.delaySeconds(vehicle.delay());
+            delays[i] = delay;
+            if (delay == SiriReader.NO_DELAY || delay == 0) {
+                onTime[group]++;
+            } else if (delay < 0) {
+                early[group]++;
+            } else {
+                late[group]++;
+            }
+            if (delay != SiriReader.NO_DELAY) {
+                delayCounts[group]++;
+            }
+        }
+
+        // Known delays laid out group after group, each group then sorted on its own
+        int groups = groupKeys.size();
+        int[] offsets = new int[groups + 1];
+        for (int g = 0; g < groups; g++) {
+            offsets[g + 1] = offsets[g] + delayCounts[g];
+        }
+        long[] sorted = new long[offsets[groups]];
+        int[] fill = Arrays.copyOf(offsets, groups);
+        for (int i = 0; i < count; i++) {
+            if (delays[i] != SiriReader.NO_DELAY) {
+                sorted[fill[groupOf[i]]++] = delays[i];
+            }
+        }
+
+        List<VehicleStats.Group> lines = new ArrayList<>(groups);
+        int totalStale = 0, totalOnTime = 0, totalLate = 0, totalEarly = 0;
+        for (int g = 0; g < groups; g++) {
+            Arrays.sort(sorted, offsets[g], offsets[g + 1]);
+            VehiclePosition key = groupKeys.get(g);
+            lines.add(group(key.lineId(), key.direction(), vehicleCounts[g], staleCounts[g], onTime[g], late[g],
+                    early[g], sorted, offsets[g], offsets[g + 1]));
+            totalStale += staleCounts[g];
+            totalOnTime += onTime[g];
+            totalLate += late[g];
+            totalEarly += early[g];
+        }
+        lines.sort(Comparator.comparing(VehicleStats.Group::lineId, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(VehicleStats.Group::direction, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        Arrays.sort(sorted);
+        VehicleStats.Group total = group(null, null, count, totalStale, totalOnTime, totalLate, totalEarly,
+                sorted, 0, sorted.length);
+        return new VehicleStats(snapshot.sequence(), snapshot.lastFetchTime(), snapshot.apiStatus(),
+                snapshot.stale(), snapshot.ageMs(), total, lines);
+    }
+
+    // sorted[from, to) holds the group's delays in ascending order
+    private static VehicleStats.Group group(String lineId, String direction, int vehicles, int stale, int onTime,
+            int late, int early, long[] sorted, int from, int to) {
+        return new VehicleStats.Group(lineId, direction, vehicles, stale, onTime, late, early,
+                percentile(sorted, from, to, 0.5), percentile(sorted, from, to, 0.9),
+                from == to ? null : sorted[to - 1]);
+    }
+
+    // Nearest-rank percentile
+    private static Long percentile(long[] sorted, int from, int to, double p) {
+        if (from == to) {
+            return null;
+        }
+        int rank = (int) Math.ceil(p * (to - from));
+        return sorted[from + Math.max(0, rank - 1)];
+    }
+}
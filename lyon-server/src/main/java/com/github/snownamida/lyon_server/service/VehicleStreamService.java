@@ -0,0 +1,84 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EncodedPayload;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+
+@Service
+public class VehicleStreamService {
+
+    private final SseBroadcaster subscribers;
+    private final GrandLyonService grandLyonService;
+    private final VehiclePayloadService vehiclePayloadService;
+    private final ObjectMapper objectMapper;
+    private final DistributionSummary deltaSize;
+
+    public VehicleStreamService(GrandLyonService grandLyonService,
+            VehiclePayloadService vehiclePayloadService,
+            ObjectMapper objectMapper,
+            @Value("${grandlyon.stream.timeout-ms:300000}") long timeoutMs,
+            @Value("${grandlyon.stream.send-timeout-ms:10000}") long sendTimeoutMs,
+            MeterRegistry meterRegistry) {
+        this.grandLyonService = grandLyonService;
+        this.vehiclePayloadService = vehiclePayloadService;
+        this.objectMapper = objectMapper;
+        this.subscribers = new SseBroadcaster(timeoutMs, sendTimeoutMs);
+
+        Gauge.builder("grandlyon.stream.subscribers", subscribers, SseBroadcaster::size)
+                .register(meterRegistry);
+        this.deltaSize = DistributionSummary.builder("grandlyon.stream.delta.size")
+                .description("Size of the delta pushed to stream subscribers on each refresh")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public SseEmitter subscribe() {
+        // New subscribers get the current snapshot straight away instead of waiting for the next refresh,
+        // reusing the bytes already encoded for /api/vehicles
+        EncodedPayload snapshot = vehiclePayloadService.getSnapshotPayload();
+        return subscribers.subscribe("snapshot", new String(snapshot.body(), StandardCharsets.UTF_8));
+    }
+
+    // Open streams count as activity, otherwise the refresher would go idle under them. Not tied to snapshot
+    // events: while upstream is down nothing may be published for longer than the idle timeout.
+    @Scheduled(fixedDelayString = "${grandlyon.api.refresh-interval-ms:3000}")
+    public void keepAlive() {
+        if (!subscribers.isEmpty()) {
+            grandLyonService.markActivity();
+        }
+    }
+
+    @EventListener
+    public void onSnapshot(VehicleSnapshotEvent event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        // Subscribers already hold the previous snapshot, so only the changes are pushed.
+        // Serialize once, every subscriber gets the same payload.
+        String payload = serialize(event.delta());
+        if (payload == null) {
+            return;
+        }
+        deltaSize.record(payload.length());
+        subscribers.broadcast("delta", payload);
+    }
+
+    private String serialize(Object message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (Exception e) {
+            System.err.println("Failed to serialize vehicle stream message: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static com.github.snownamida.lyon_server.service.ArchiveFormat.*;
+
+// Compact snapshot encoding for clients that ask for it with Accept: application/vnd.lyon.vehicles.
+// Decoded by lyon-web/app/vehicleWire.ts, keep the two in step.
+//
+// After the "LYV" magic and a version byte, everything is a varint:
+//   sequence, fetch time (ms + 1, 0 = none), api timestamp (instant), status (string), flags (1 = stale), age (ms),
+//   vehicle count, the vehicle ids (strings, in sorted order so neighbours share prefixes),
+//   line, direction, destination, data source, status and delay: each a sorted dictionary (count, strings)
+//     followed by one code per vehicle, the dictionary index + 1 or 0 for null,
+//   latitudes, longitudes (micro-degrees, zigzag delta from the previous vehicle's),
+//   bearings (tenths of a degree + 1, 0 = null),
+//   recorded at (instant, relative to the previous vehicle's), valid until (instant, relative to recorded at).
+// Strings are front coded: the chars (UTF-16 units) shared with the previous string of the list, then the UTF-8
+// length of the rest + 1 (0 = null) and its bytes. Instants are zigzag millisecond offsets + 1, 0 = null, so recorded
+// times lose their sub-millisecond digits; offsets missing their reference count from the fetch time.
+public final class VehicleWireFormat {
+
+    public static final MediaType MEDIA_TYPE = new MediaType("application", "vnd.lyon.vehicles");
+
+    private static final byte[] MAGIC = { 'L', 'Y', 'V' };
+    private static final int VERSION = 1;
+    private static final int STALE = 1;
+
+    private static final List<Function<VehiclePosition, String>> DICTIONARY_COLUMNS = List.of(
+            VehiclePosition::lineId, VehiclePosition::direction, VehiclePosition::destinationName,
+            VehiclePosition::dataSource, VehiclePosition::vehicleStatus, VehiclePosition::delay);
+
+    private VehicleWireFormat() {
+    }
+
+    // Only when asked for by name: browsers send */* and must keep getting JSON
+    public static boolean isAccepted(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+            if (MEDIA_TYPE.equalsTypeAndSubtype(mediaType) && mediaType.getQualityValue() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static byte[] encode(VehicleData snapshot) {
+        List<VehiclePosition> vehicles = new ArrayList<>(snapshot.vehicles());
+        vehicles.sort(Comparator.comparing(VehiclePosition::vehicleId,
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + vehicles.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            long fetchMillis = snapshot.lastFetchTime() == null ? 0 : snapshot.lastFetchTime().toEpochMilli();
+            writeVarLong(out, snapshot.sequence());
+            writeVarLong(out, snapshot.lastFetchTime() == null ? 0 : fetchMillis + 1);
+            writeInstant(out, snapshot.apiResponseTimestamp(), fetchMillis);
+            new StringWriter().write(out, snapshot.apiStatus());
+            writeVarLong(out, snapshot.stale() ? STALE : 0);
+            writeVarLong(out, snapshot.ageMs());
+
+            writeVarLong(out, vehicles.size());
+            StringWriter ids = new StringWriter();
+            for (VehiclePosition vehicle : vehicles) {
+                ids.write(out, vehicle.vehicleId());
+            }
+            for (Function<VehiclePosition, String> column : DICTIONARY_COLUMNS) {
+                TreeSet<String> values = new TreeSet<>();
+                for (VehiclePosition vehicle : vehicles) {
+                    if (column.apply(vehicle) != null) {
+                        values.add(column.apply(vehicle));
+                    }
+                }
+                writeVarLong(out, values.size());
+                StringWriter dictionary = new StringWriter();
+                Map<String, Integer> codes = new HashMap<>();
+                for (String value : values) {
+                    dictionary.write(out, value);
+                    codes.put(value, codes.size() + 1);
+                }
+                for (VehiclePosition vehicle : vehicles) {
+                    String value = column.apply(vehicle);
+                    writeVarLong(out, value == null ? 0 : codes.get(value));
+                }
+            }
+
+            long previous = 0;
+            for (VehiclePosition vehicle : vehicles) {
+                long latitude = Math.round(vehicle.latitude() * MICRO_DEGREES);
+                writeSignedVarLong(out, latitude - previous);
+                previous = latitude;
+            }
+            previous = 0;
+            for (VehiclePosition vehicle : vehicles) {
+                long longitude = Math.round(vehicle.longitude() * MICRO_DEGREES);
+                writeSignedVarLong(out, longitude - previous);
+                previous = longitude;
+            }
+            for (VehiclePosition vehicle : vehicles) {
+                writeVarLong(out, vehicle.bearing() == null ? 0 : Math.round(vehicle.bearing() * 10) + 1);
+            }
+            previous = fetchMillis;
+            for (VehiclePosition vehicle : vehicles) {
+                writeInstant(out, vehicle.recordedAtTime(), previous);
+                if (vehicle.recordedAtTime() != null) {
+                    previous = vehicle.recordedAtTime().toEpochMilli();
+                }
+            }
+            for (VehiclePosition vehicle : vehicles) {
+                Instant recordedAt = vehicle.recordedAtTime();
+                writeInstant(out, vehicle.validUntilTime(),
+                        recordedAt == null ? fetchMillis : recordedAt.toEpochMilli());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static VehicleData decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        int version = in.readUnsignedByte();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException("Not a version " + VERSION + " vehicle snapshot");
+        }
+
+        long sequence = readVarLong(in);
+        long fetch = readVarLong(in);
+        long fetchMillis = fetch == 0 ? 0 : fetch - 1;
+        Instant apiTimestamp = readInstant(in, fetchMillis);
+        String status = new StringReader().read(in);
+        boolean stale = (readVarLong(in) & STALE) != 0;
+        long ageMs = readVarLong(in);
+
+        int count = readVarInt(in);
+        String[] ids = new String[count];
+        StringReader idReader = new StringReader();
+        for (int i = 0; i < count; i++) {
+            ids[i] = idReader.read(in);
+        }
+        String[][] columns = new String[DICTIONARY_COLUMNS.size()][count];
+        for (String[] column : columns) {
+            String[] dictionary = new String[readVarInt(in)];
+            StringReader dictionaryReader = new StringReader();
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = dictionaryReader.read(in);
+            }
+            for (int i = 0; i < count; i++) {
+                int code = readVarInt(in);
+                column[i] = code == 0 ? null : dictionary[code - 1];
+            }
+        }
+
+        long[] latitudes = new long[count];
+        long[] longitudes = new long[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = (i == 0 ? 0 : latitudes[i - 1]) + readSignedVarLong(in);
+        }
+        for (int i = 0; i < count; i++) {
+            longitudes[i] = (i == 0 ? 0 : longitudes[i - 1]) + readSignedVarLong(in);
+        }
+        long[] bearings = new long[count];
+        for (int i = 0; i < count; i++) {
+            bearings[i] = readVarLong(in);
+        }
+        Instant[] recordedAts = new Instant[count];
+        long previous = fetchMillis;
+        for (int i = 0; i < count; i++) {
+            recordedAts[i] = readInstant(in, previous);
+            if (recordedAts[i] != null) {
+                previous = recordedAts[i].toEpochMilli();
+            }
+        }
+        List<VehiclePosition> vehicles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Instant validUntil = readInstant(in,
+                    recordedAts[i] == null ? fetchMillis : recordedAts[i].toEpochMilli());
+            vehicles.add(new VehiclePosition(ids[i], columns[0][i], columns[1][i],
+                    latitudes[i] / MICRO_DEGREES, longitudes[i] / MICRO_DEGREES, columns[5][i], recordedAts[i],
+                    validUntil, columns[2][i], columns[3][i],
+                    bearings[i] == 0 ? null : (bearings[i] - 1) / 10.0, columns[4][i]));
+        }
+        return new VehicleData(vehicles, apiTimestamp, fetch == 0 ? null : Instant.ofEpochMilli(fetchMillis),
+                status, sequence, stale, ageMs);
+    }
+
+    private static void writeInstant(DataOutput out, Instant instant, long referenceMillis) throws IOException {
+        if (instant == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        long offset = instant.toEpochMilli() - referenceMillis;
+        writeVarLong(out, ((offset << 1) ^ (offset >> 63)) + 1);
+    }
+
+    private static Instant readInstant(DataInput in, long referenceMillis) throws IOException {
+        long value = readVarLong(in);
+        if (value == 0) {
+            return null;
+        }
+        long zigZag = value - 1;
+        return Instant.ofEpochMilli(referenceMillis + ((zigZag >>> 1) ^ -(zigZag & 1)));
+    }
+
+    // Front codes a list of strings, each against the previous non-null one. Shared prefixes are counted in
+    // chars so a decoder can slice its previous string and only decode the rest.
+    private static final class StringWriter {
+
+        private String previous = "";
+
+        void write(DataOutput out, String string) throws IOException {
+            if (string == null) {
+                writeVarLong(out, 0);
+                writeVarLong(out, 0);
+                return;
+            }
+            int shared = 0;
+            int max = Math.min(previous.length(), string.length());
+            while (shared < max && previous.charAt(shared) == string.charAt(shared)) {
+                shared++;
+            }
+            // Never split a surrogate pair
+            if (shared > 0 && Character.isHighSurrogate(string.charAt(shared - 1))) {
+                shared--;
+            }
+            byte[] suffix = string.substring(shared).getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, shared);
+            writeVarLong(out, suffix.length + 1);
+            out.write(suffix);
+            previous = string;
+        }
+    }
+
+    private static final class StringReader {
+
+        private String previous = "";
+
+        String read(DataInput in) throws IOException {
+            int shared = readVarInt(in);
+            int suffix = readVarInt(in);
+            if (suffix == 0) {
+                return null;
+            }
+            byte[] utf8 = new byte[suffix - 1];
+            in.readFully(utf8);
+            previous = previous.substring(0, shared) + new String(utf8, StandardCharsets.UTF_8);
+            return previous;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.snownamida.lyon_server.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplayRequestFactoryTest {
+
+	@TempDir
+	Path directory;
+
+	private final AtomicLong clock = new AtomicLong(1_000_000);
+
+	@Test
+	void replaysRecordingsAtTheirPace() throws IOException {
+		Files.writeString(directory.resolve("vehicle-monitoring.json"), "static");
+		Files.writeString(directory.resolve("vehicle-monitoring-1767033600000.json"), "first");
+		Files.writeString(directory.resolve("vehicle-monitoring-1767033603000.json"), "second");
+		Files.writeString(directory.resolve("vehicle-monitoring-1767033609000.json"), "third");
+		ReplayRequestFactory factory = new ReplayRequestFactory(directory, 2, true, clock::get);
+
+		assertThat(get(factory, "vehicle-monitoring.json")).isEqualTo("first");
+		clock.addAndGet(1_500);
+		assertThat(get(factory, "vehicle-monitoring.json")).isEqualTo("second");
+		clock.addAndGet(3_000);
+		assertThat(get(factory, "vehicle-monitoring.json")).isEqualTo("third");
+		// The last one is held for the average gap, 4.5 s, then it starts over
+		clock.addAndGet(2_250);
+		assertThat(get(factory, "vehicle-monitoring.json")).isEqualTo("first");
+	}
+
+	@Test
+	void servesOtherFilesAsTheyAre() throws IOException {
+		Files.writeString(directory.resolve("lines.json"), "{}");
+		ReplayRequestFactory factory = new ReplayRequestFactory(directory, 1, false, clock::get);
+
+		assertThat(get(factory, "lines.json")).isEqualTo("{}");
+		try (ClientHttpResponse response = factory.createRequest(URI.create("http://replay/missing.json"),
+				HttpMethod.GET).execute()) {
+			assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+		}
+	}
+
+	private static String get(ReplayRequestFactory factory, String name) throws IOException {
+		try (ClientHttpResponse response = factory.createRequest(URI.create("http://replay/feeds/" + name + "?f=json"),
+				HttpMethod.GET).execute()) {
+			assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+			return new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
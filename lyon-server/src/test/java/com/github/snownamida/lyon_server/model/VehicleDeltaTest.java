@@ -0,0 +1,53 @@
+package com.github.snownamida.lyon_server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VehicleDeltaTest {
+
+	@Test
+	void diffsSnapshotsByVehicleId() {
+		VehiclePosition kept = position("1", 45.75, 4.85);
+		VehiclePosition moved = position("2", 45.76, 4.86);
+		VehiclePosition gone = position("3", 45.77, 4.87);
+		VehiclePosition movedNow = position("2", 45.761, 4.861);
+		VehiclePosition fresh = position("4", 45.78, 4.88);
+
+		VehicleData base = snapshot(List.of(kept, moved, gone), 7);
+		VehicleData current = snapshot(List.of(kept, movedNow, fresh), 8);
+
+		VehicleDelta delta = VehicleDelta.between(base, current);
+
+		assertThat(delta.since()).isEqualTo(7);
+		assertThat(delta.sequence()).isEqualTo(8);
+		assertThat(delta.reset()).isFalse();
+		assertThat(delta.added()).containsExactly(fresh);
+		assertThat(delta.changed()).containsExactly(movedNow);
+		assertThat(delta.removed()).containsExactly("3");
+	}
+
+	@Test
+	void fullDeltaListsEveryVehicle() {
+		VehicleData current = snapshot(List.of(position("1", 45.75, 4.85)), 12);
+
+		VehicleDelta delta = VehicleDelta.full(current, 3);
+
+		assertThat(delta.reset()).isTrue();
+		assertThat(delta.added()).isEqualTo(current.vehicles());
+		assertThat(delta.changed()).isEmpty();
+		assertThat(delta.removed()).isEmpty();
+	}
+
+	private static VehicleData snapshot(List<VehiclePosition> vehicles, long sequence) {
+		return new VehicleData(vehicles, Instant.EPOCH, Instant.EPOCH, "OK", sequence);
+	}
+
+	private static VehiclePosition position(String id, double lat, double lon) {
+		return new VehiclePosition(id, "ActIV:Line::C3:SYTRAL", "inbound", lat, lon, "PT0S", null, null, null, null,
+				null, null);
+	}
+}
@@ -0,0 +1,137 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.EstimatedPositions;
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DeadReckoningServiceTest {
+
+	// T9 runs straight north from 45.75 to 45.76, about 1112 m
+	private static final String LAYER = """
+			{"type":"FeatureCollection","features":[{"type":"Feature",
+			"properties":{"ligne":"T9","code_ligne":"T9A","sens":"Aller"},
+			"geometry":{"type":"MultiLineString","coordinates":[[[4.8,45.75],[4.8,45.755],[4.8,45.76]]]}}]}""";
+
+	private final Instant start = Instant.parse("2025-12-29T18:00:00Z");
+
+	@Test
+	void extrapolatesAlongTheLine() {
+		DeadReckoningService service = service();
+		service.useGeometry("tram", "v1",
+				LineGeometry.parse(new ObjectMapper(), new TransportLineService.LineData(LAYER, "OK")));
+
+		// 10 m off the line, then 111 m further north 10 s later
+		service.track(snapshot(1, 0, vehicle("A", "ActIV:Line::T9:SYTRAL", 45.751, 4.80013, 0)));
+		service.track(snapshot(2, 10, vehicle("A", "ActIV:Line::T9:SYTRAL", 45.752, 4.80013, 10)));
+
+		EstimatedPositions.Estimate at15 = only(service.estimate(millis(15)));
+		assertThat(at15.onRoute()).isTrue();
+		assertThat(at15.longitude()).isEqualTo(4.8);
+		assertThat(at15.latitude()).isCloseTo(45.7525, within(1e-6));
+		assertThat(at15.bearing()).isEqualTo(0.0);
+
+		// Never further than the extrapolation limit, and never past the end of the line
+		assertThat(only(service.estimate(millis(1000))).latitude()).isCloseTo(45.755, within(1e-6));
+		service.track(snapshot(3, 70, vehicle("A", "ActIV:Line::T9:SYTRAL", 45.7595, 4.8, 70)));
+		assertThat(only(service.estimate(millis(100))).latitude()).isEqualTo(45.76);
+
+		// A jump no tram could make stops the vehicle at its new fix, which is streamed once
+		service.track(snapshot(4, 75, vehicle("A", "ActIV:Line::T9:SYTRAL", 45.751, 4.8, 75)));
+		assertThat(only(service.changes(millis(80))).latitude()).isEqualTo(45.751);
+		assertThat(service.changes(millis(81)).vehicles()).isEmpty();
+
+		// A failed refresh keeps the last fixes
+		service.track(new VehicleData(List.of(), null, start.plusSeconds(78), "API_DOWN", 0));
+		assertThat(service.estimate(millis(80)).vehicles()).hasSize(1);
+	}
+
+	@Test
+	void projectsUnknownLinesAlongTheirHeading() {
+		DeadReckoningService service = service();
+
+		service.track(snapshot(1, 0, vehicle("B", "ActIV:Line::C3:SYTRAL", 45.75, 4.8, 0)));
+		// Not moving yet, so streamed once
+		assertThat(only(service.changes(millis(5))).longitude()).isEqualTo(4.8);
+		assertThat(service.changes(millis(6)).vehicles()).isEmpty();
+
+		// About 78 m east in 10 s
+		service.track(snapshot(2, 10, vehicle("B", "ActIV:Line::C3:SYTRAL", 45.75, 4.801, 10)));
+		EstimatedPositions moving = service.changes(millis(20));
+		assertThat(moving.sequence()).isEqualTo(2);
+		EstimatedPositions.Estimate at20 = only(moving);
+		assertThat(at20.onRoute()).isFalse();
+		assertThat(at20.latitude()).isCloseTo(45.75, within(1e-6));
+		assertThat(at20.longitude()).isCloseTo(4.802, within(2e-6));
+		assertThat(at20.bearing()).isEqualTo(90.0);
+	}
+
+	@Test
+	void streamsStoppedAndRemovedVehicles() {
+		DeadReckoningService service = service();
+
+		service.track(snapshot(1, 0, vehicle("B", "ActIV:Line::C3:SYTRAL", 45.75, 4.8, 0),
+				vehicle("C", "ActIV:Line::C1:SYTRAL", 45.76, 4.8, 0)));
+		assertThat(service.changes(millis(1)).vehicles()).hasSize(2);
+		assertThat(service.changes(millis(2)).vehicles()).isEmpty();
+
+		// B moves about 78 m east in 10 s, C sends the same fix again
+		service.track(snapshot(2, 10, vehicle("B", "ActIV:Line::C3:SYTRAL", 45.75, 4.801, 10),
+				vehicle("C", "ActIV:Line::C1:SYTRAL", 45.76, 4.8, 0)));
+		assertThat(only(service.changes(millis(11))).vehicleId()).isEqualTo("B");
+		assertThat(only(service.changes(millis(39))).longitude()).isCloseTo(4.80390, within(2e-5));
+
+		// Once the extrapolation window runs out B is sent where it stopped, then left alone
+		EstimatedPositions.Estimate stopped = only(service.changes(millis(41)));
+		assertThat(stopped.longitude()).isCloseTo(4.804, within(2e-5));
+		assertThat(service.changes(millis(42)).vehicles()).isEmpty();
+
+		// B's next fix is back where it was seen last, and C is gone
+		service.track(snapshot(3, 50, vehicle("B", "ActIV:Line::C3:SYTRAL", 45.75, 4.801, 50)));
+		EstimatedPositions changes = service.changes(millis(51));
+		assertThat(only(changes).longitude()).isEqualTo(4.801);
+		assertThat(changes.removed()).containsExactly("C");
+		changes = service.changes(millis(52));
+		assertThat(changes.vehicles()).isEmpty();
+		assertThat(changes.removed()).isEmpty();
+	}
+
+	@Test
+	void extractsLineCodes() {
+		assertThat(DeadReckoningService.lineCode("ActIV:Line::T4:SYTRAL")).isEqualTo("T4");
+		assertThat(DeadReckoningService.lineCode("C3")).isEqualTo("C3");
+		assertThat(DeadReckoningService.lineCode(null)).isNull();
+	}
+
+	private static DeadReckoningService service() {
+		return new DeadReckoningService(null, null, new ObjectMapper(), null, List.of(), 60, 30, 30_000, 120_000,
+				300_000, 10_000, new SimpleMeterRegistry());
+	}
+
+	private static EstimatedPositions.Estimate only(EstimatedPositions estimates) {
+		assertThat(estimates.vehicles()).hasSize(1);
+		return estimates.vehicles().get(0);
+	}
+
+	private long millis(int seconds) {
+		return start.plusSeconds(seconds).toEpochMilli();
+	}
+
+	private VehicleData snapshot(long sequence, int seconds, VehiclePosition... vehicles) {
+		Instant fetched = start.plusSeconds(seconds).plusMillis(1500);
+		return new VehicleData(List.of(vehicles), fetched, fetched, "OK", sequence);
+	}
+
+	private VehiclePosition vehicle(String id, String lineId, double latitude, double longitude, int recordedAt) {
+		return new VehiclePosition(id, lineId, "outbound", latitude, longitude, "PT0S", start.plusSeconds(recordedAt),
+				null, null, "TCL", null, "EXPECTED");
+	}
+}
@@ -0,0 +1,104 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.web.client.MockServerRestTemplateCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class GrandLyonServiceTest {
+
+	private static final String VEHICLES_URL = "http://upstream/vehicle-monitoring.json";
+	private static final String SIRI = """
+			{"Siri":{"ServiceDelivery":{"ResponseTimestamp":"2025-12-29T18:41:02Z",
+			"VehicleMonitoringDelivery":[{"VehicleActivity":[
+			{"RecordedAtTime":"2025-12-29T18:40:54Z","MonitoredVehicleJourney":{
+			 "VehicleRef":{"value":"A"},"LineRef":{"value":"C3"},
+			 "VehicleLocation":{"Longitude":4.8,"Latitude":45.7}}}]}]}}}
+			""";
+
+	@Test
+	void keepsServingTheLastPositionsWhileUpstreamIsDown() {
+		MockServerRestTemplateCustomizer customizer = new MockServerRestTemplateCustomizer();
+		List<VehicleSnapshotEvent> events = new ArrayList<>();
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		// Two failures in a row open the circuit for a minute
+		GrandLyonService service = new GrandLyonService(VEHICLES_URL, "http://upstream/passages.json", "user",
+				"password", 60_000, 20, 900_000, new RestTemplateBuilder(customizer),
+				new UpstreamResilience(2, 60_000, 300_000, meterRegistry),
+				event -> events.add((VehicleSnapshotEvent) event), task -> {
+				}, meterRegistry);
+		MockRestServiceServer server = customizer.getServer();
+		server.expect(requestTo(VEHICLES_URL)).andRespond(withSuccess(SIRI, MediaType.APPLICATION_JSON));
+		server.expect(requestTo(VEHICLES_URL)).andRespond(withServerError());
+		server.expect(requestTo(VEHICLES_URL)).andRespond(withServerError());
+		service.markActivity();
+		// Nothing fetched yet, the age counts from startup
+		assertThat(meterRegistry.get("grandlyon.vehicles.snapshot.age").gauge().value()).isBetween(0.0, 60.0);
+
+		service.refreshVehiclePositions();
+		VehicleData good = service.getVehiclePositions();
+		assertThat(good.apiStatus()).isEqualTo("OK");
+		assertThat(good.stale()).isFalse();
+		assertThat(good.vehicles()).hasSize(1);
+
+		service.refreshVehiclePositions();
+		VehicleData stale = service.getVehiclePositions();
+		assertThat(stale.apiStatus()).startsWith("ERROR");
+		assertThat(stale.stale()).isTrue();
+		assertThat(stale.vehicles()).isEqualTo(good.vehicles());
+		assertThat(stale.lastFetchTime()).isEqualTo(good.lastFetchTime());
+		assertThat(events.get(1).delta().removed()).isEmpty();
+
+		// The second failure opens the circuit, the next refresh doesn't reach upstream at all. Neither changes
+		// what clients see, so nothing new is published.
+		service.refreshVehiclePositions();
+		service.refreshVehiclePositions();
+		server.verify();
+		VehicleData skipped = service.getVehiclePositions();
+		assertThat(skipped).isSameAs(stale);
+		assertThat(events).hasSize(2);
+		assertThat(meterRegistry.counter("grandlyon.upstream.skipped", "feed", "vehicles").count()).isEqualTo(1);
+	}
+
+	@Test
+	void fetchesOnWakeUpAndFlagsWhatWasHeldWhileIdle() throws InterruptedException {
+		MockServerRestTemplateCustomizer customizer = new MockServerRestTemplateCustomizer();
+		List<Runnable> tasks = new ArrayList<>();
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		GrandLyonService service = new GrandLyonService(VEHICLES_URL, "http://upstream/passages.json", "user",
+				"password", 50, 20, 900_000, new RestTemplateBuilder(customizer),
+				new UpstreamResilience(2, 60_000, 300_000, meterRegistry), event -> {
+				}, tasks::add, meterRegistry);
+		MockRestServiceServer server = customizer.getServer();
+		server.expect(requestTo(VEHICLES_URL)).andRespond(withSuccess(SIRI, MediaType.APPLICATION_JSON));
+
+		// The first request finds nothing fetched yet, and gets a fetch started
+		assertThat(service.getVehiclePositions().apiStatus()).isEqualTo("STARTING");
+		assertThat(tasks).hasSize(1);
+		tasks.get(0).run();
+		VehicleData fresh = service.getVehiclePositions();
+		assertThat(fresh.apiStatus()).isEqualTo("OK");
+		assertThat(fresh.stale()).isFalse();
+
+		// Nobody asks for a while: no upstream call, but the positions are no longer presented as current
+		Thread.sleep(100);
+		service.refreshVehiclePositions();
+		server.verify();
+		VehicleData idle = service.getVehiclePositions();
+		assertThat(idle.stale()).isTrue();
+		assertThat(idle.vehicles()).isEqualTo(fresh.vehicles());
+		assertThat(idle.lastFetchTime()).isEqualTo(fresh.lastFetchTime());
+		assertThat(tasks).hasSize(2);
+	}
+}
@@ -0,0 +1,42 @@
+package com.github.snownamida.lyon_server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GridIndexTest {
+
+	private record Point(String name, double lat, double lon) {
+	}
+
+	private final Point bellecour = new Point("bellecour", 45.7578, 4.8320);
+	private final Point hotelDeVille = new Point("hotel-de-ville", 45.7676, 4.8359);
+	private final Point partDieu = new Point("part-dieu", 45.7606, 4.8594);
+	private final Point saintExupery = new Point("saint-exupery", 45.7256, 5.0811);
+
+	private final GridIndex<Point> index = GridIndex.build(List.of(bellecour, hotelDeVille, partDieu, saintExupery),
+			Point::lat, Point::lon, 0.01);
+
+	@Test
+	void findsPointsInsideBox() {
+		assertThat(index.within(45.75, 4.82, 45.77, 4.84)).containsExactlyInAnyOrder(bellecour, hotelDeVille);
+		assertThat(index.within(40, 0, 50, 10)).hasSize(4);
+	}
+
+	@Test
+	void answersHugeAndOutOfRangeBoxes() {
+		assertThat(index.within(-1e10, -1e10, 1e10, 1e10)).hasSize(4);
+		assertThat(index.within(1e300, 0, 1e300, 0)).isEmpty();
+		assertThat(index.within(Double.NaN, 4, Double.NaN, 5)).isEmpty();
+		GridIndex<Point> far = GridIndex.build(List.of(new Point("far", 1e300, 1e300)), Point::lat, Point::lon, 0.01);
+		assertThat(far.within(1e300, 1e300, 1e300, 1e300)).hasSize(1);
+	}
+
+	@Test
+	void findsPointsWithinRadiusClosestFirst() {
+		assertThat(index.near(45.7580, 4.8330, 1500)).containsExactly(bellecour, hotelDeVille);
+		assertThat(index.near(45.7580, 4.8330, 3000)).containsExactly(bellecour, hotelDeVille, partDieu);
+	}
+}
@@ -0,0 +1,43 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.Passage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PassageReaderTest {
+
+	private final PassageReader reader = new PassageReader(new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false));
+
+	@Test
+	void indexesPassagesByStopSortedByTime() throws Exception {
+		String json = """
+				{"fields":["id"],"nb_results":3,"values":[
+				{"id":"12","ligne":"C3","heurepassage":"2025-12-29 18:50:00","gid":1,"extra":{"a":[1]}},
+				{"id":"40","ligne":"T1","heurepassage":"2025-12-29 18:45:00","gid":2},
+				{"id":"12","ligne":"C3","heurepassage":"2025-12-29 18:42:00","gid":3}
+				],"layer_name":"tcl_sytral.tclpassagearret"}
+				""";
+
+		PassageIndex index = reader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+		assertThat(index.size()).isEqualTo(3);
+		assertThat(index.forStop("12")).extracting(Passage::gid).containsExactly(3, 1);
+		assertThat(index.forStops(List.of("12", "40"))).extracting(Passage::gid).containsExactly(3, 2, 1);
+		assertThat(index.forStop("99")).isEmpty();
+	}
+
+	@Test
+	void returnsNullWithoutValues() throws Exception {
+		String json = "{\"fields\":[],\"nb_results\":0}";
+
+		assertThat(reader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))).isNull();
+	}
+}
@@ -0,0 +1,75 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SiriReaderTest {
+
+	private final SiriReader reader = new SiriReader(new JsonFactory());
+
+	@Test
+	void keepsOneActivityPerVehicle() throws Exception {
+		String json = """
+				{"Siri":{"ServiceDelivery":{"ResponseTimestamp":"2025-12-29T18:41:02.602606464Z",
+				"ProducerRef":{"value":"MDL"},
+				"VehicleMonitoringDelivery":[{"VehicleActivity":[
+				{"RecordedAtTime":"2025-12-29T18:38:54.2159193Z","MonitoredVehicleJourney":{
+				 "VehicleRef":{"value":"A"},"LineRef":{"value":"C3"},"Delay":"PT3M","Bearing":108,
+				 "VehicleLocation":{"Longitude":4.8,"Latitude":45.7},"MonitoredCall":{"Order":31}}},
+				{"MonitoredVehicleJourney":{"VehicleRef":{"value":"A"},"LineRef":{"value":"C3"},"Delay":"-PT1M30S"}},
+				{"MonitoredVehicleJourney":{"VehicleRef":{"value":"B"},"Delay":"garbage"}},
+				{"MonitoredVehicleJourney":{"VehicleRef":{"value":"B"}}},
+				{"MonitoredVehicleJourney":{"LineRef":{"value":"T1"}}},
+				null
+				]}]}}}
+				""";
+
+		SiriReader.Result result = reader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+		assertThat(result.activities()).isEqualTo(5);
+		assertThat(result.responseTimestamp()).isEqualTo(Instant.parse("2025-12-29T18:41:02.602606464Z"));
+		assertThat(result.vehicles()).extracting(VehiclePosition::vehicleId).containsExactly("A", "B");
+		assertThat(result.vehicles()).extracting(VehiclePosition::delay).containsExactly("-PT1M30S", "garbage");
+
+		String first = json.replace("\"Delay\":\"-PT1M30S\"", "\"Delay\":\"PT5M\"");
+		VehiclePosition a = reader.read(new ByteArrayInputStream(first.getBytes(StandardCharsets.UTF_8)))
+				.vehicles().get(0);
+		assertThat(a.delay()).isEqualTo("PT3M");
+		assertThat(a.latitude()).isEqualTo(45.7);
+		assertThat(a.longitude()).isEqualTo(4.8);
+		assertThat(a.bearing()).isEqualTo(108.0);
+		assertThat(a.recordedAtTime()).isEqualTo(Instant.parse("2025-12-29T18:38:54.2159193Z"));
+	}
+
+	@Test
+	void returnsNullWithoutDelivery() throws Exception {
+		String json = "{\"Siri\":{\"ServiceDelivery\":{\"ResponseTimestamp\":\"2025-12-29T18:41:02Z\"}}}";
+
+		assertThat(reader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))).isNull();
+	}
+
+	@Test
+	void parsesDelaysAndTimestamps() {
+		assertThat(SiriReader.delaySeconds("PT0S")).isZero();
+		assertThat(SiriReader.delaySeconds("PT3M")).isEqualTo(180);
+		assertThat(SiriReader.delaySeconds("-PT1M30S")).isEqualTo(-90);
+		assertThat(SiriReader.delaySeconds("PT1H2M3.5S")).isEqualTo(3723);
+		assertThat(SiriReader.delaySeconds("P1DT1S")).isEqualTo(86401);
+		assertThat(SiriReader.delaySeconds("3 minutes")).isEqualTo(SiriReader.NO_DELAY);
+		assertThat(SiriReader.delaySeconds(null)).isEqualTo(SiriReader.NO_DELAY);
+
+		for (String value : new String[] { "2025-12-29T18:38:54.2159193Z", "2024-02-29T23:59:59Z",
+				"1970-01-01T00:00:00.1Z", "2025-12-31T00:00:00+01:00" }) {
+			assertThat(SiriReader.parseInstant(value)).isEqualTo(Instant.parse(value));
+		}
+		assertThat(SiriReader.parseInstant("2025-02-30T00:00:00Z")).isNull();
+		assertThat(SiriReader.parseInstant("0001-01-01T00:00:00Z")).isEqualTo(Instant.parse("0001-01-01T00:00:00Z"));
+	}
+}
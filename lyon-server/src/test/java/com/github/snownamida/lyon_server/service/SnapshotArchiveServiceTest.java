@@ -0,0 +1,66 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotArchiveServiceTest {
+
+	@TempDir
+	Path directory;
+
+	private final Instant start = Instant.parse("2025-12-29T18:00:30.250Z");
+
+	@Test
+	void readsBackWhatWasArchived() throws Exception {
+		SnapshotArchiveService archive = new SnapshotArchiveService(true, directory.toString(), 1, 0,
+				new SimpleMeterRegistry());
+		VehiclePosition a = vehicle("A", 45.75751, 4.82874, "PT3M", 108.0, start.minusSeconds(20));
+		VehiclePosition b = vehicle("B", 45.7, 4.8, null, null, null);
+		VehiclePosition movedA = vehicle("A", 45.758, 4.829, "-PT1M30S", 112.5, start.minusSeconds(2));
+		List<VehicleData> snapshots = List.of(
+				snapshot(1, 0, a, b),
+				snapshot(2, 3, movedA, b),
+				snapshot(3, 6, movedA),
+				// Next minute, so a new segment
+				snapshot(4, 40, movedA, b),
+				snapshot(5, 43, b));
+		snapshots.forEach(archive::append);
+		// Sequences that go backwards are ignored
+		archive.append(snapshot(2, 44, a));
+		archive.close();
+
+		try (var files = Files.list(directory)) {
+			assertThat(files).hasSize(2);
+		}
+
+		List<VehicleData> all = new ArrayList<>();
+		new SnapshotArchiveReader(directory).read(Instant.EPOCH, Instant.MAX, all::add);
+		assertThat(all).isEqualTo(snapshots);
+
+		List<VehicleData> range = new ArrayList<>();
+		archive.read(start.plusSeconds(3), start.plusSeconds(40), range::add);
+		assertThat(range).extracting(VehicleData::sequence).containsExactly(2L, 3L, 4L);
+	}
+
+	private VehicleData snapshot(long sequence, int seconds, VehiclePosition... vehicles) {
+		Instant fetched = start.plusSeconds(seconds);
+		return new VehicleData(List.of(vehicles), fetched.minusMillis(1500), fetched, "OK", sequence);
+	}
+
+	private static VehiclePosition vehicle(String id, double latitude, double longitude, String delay,
+			Double bearing, Instant recordedAt) {
+		return new VehiclePosition(id, "C3", "inbound", latitude, longitude, delay, recordedAt,
+				recordedAt == null ? null : recordedAt.plusSeconds(60), "Gare", "TCL", bearing, "EXPECTED");
+	}
+}
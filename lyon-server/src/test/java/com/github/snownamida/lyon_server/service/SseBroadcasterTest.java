@@ -0,0 +1,57 @@
+package com.github.snownamida.lyon_server.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SseBroadcasterTest {
+
+	@Test
+	void dropsSubscribersThatFallBehind() throws InterruptedException {
+		CountDownLatch unblock = new CountDownLatch(1);
+		List<String> received = new CopyOnWriteArrayList<>();
+		SseEmitter[] emitters = { recording(received), blocking(unblock) };
+		int[] next = { 0 };
+		SseBroadcaster broadcaster = new SseBroadcaster(() -> emitters[next[0]++], 200);
+		broadcaster.subscribe("snapshot", "0");
+		broadcaster.subscribe("snapshot", "0");
+
+		// Returns straight away although the second client is stuck on its first event
+		broadcaster.broadcast("delta", "1");
+		Thread.sleep(300);
+		broadcaster.broadcast("delta", "2");
+		Thread.sleep(100);
+
+		assertThat(broadcaster.size()).isEqualTo(1);
+		assertThat(received).hasSize(3);
+		unblock.countDown();
+	}
+
+	private static SseEmitter recording(List<String> received) {
+		return new SseEmitter() {
+			@Override
+			public void send(SseEventBuilder builder) {
+				received.add(builder.toString());
+			}
+		};
+	}
+
+	private static SseEmitter blocking(CountDownLatch unblock) {
+		return new SseEmitter() {
+			@Override
+			public void send(SseEventBuilder builder) throws IOException {
+				try {
+					unblock.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		};
+	}
+}
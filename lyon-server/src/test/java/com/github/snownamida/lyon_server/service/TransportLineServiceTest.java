@@ -0,0 +1,155 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.snownamida.lyon_server.model.FilePayload;
+import com.github.snownamida.lyon_server.model.Payload;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.web.client.MockServerRestTemplateCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class TransportLineServiceTest {
+
+	private static final String METRO_URL = "http://upstream/metro.json";
+	private static final String METRO = "{\"type\":\"FeatureCollection\",\"features\":[]}";
+	private static final String METRO_V2 = "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\","
+			+ "\"properties\":{\"nom_trace\":\"Ligne A\"},\"geometry\":null}]}";
+	private static final String METRO_V3 = METRO_V2.replace("Ligne A", "Ligne B");
+	private static final String LAST_MODIFIED = "Mon, 29 Dec 2025 18:00:00 GMT";
+
+	@TempDir
+	Path cacheDir;
+
+	private final MockServerRestTemplateCustomizer customizer = new MockServerRestTemplateCustomizer();
+
+	@Test
+	void keepsLayersOnDiskAcrossRestarts() throws IOException {
+		TransportLineService service = service(86_400_000);
+		MockRestServiceServer server = customizer.getServer();
+		server.expect(requestTo(METRO_URL)).andRespond(withSuccess(METRO, MediaType.APPLICATION_JSON)
+				.headers(upstreamHeaders("\"v1\"")));
+
+		FilePayload stored = (FilePayload) service.getLinePayload("metro");
+		server.verify();
+		assertThat(Files.readString(stored.body())).isEqualTo("{\"geojson\":" + quoted(METRO) + ",\"status\":\"OK\"}");
+		assertThat(stored.body().getFileName().toString()).isEqualTo("metro-" + stored.etag() + ".json");
+
+		// A new instance serves the same files without asking upstream, and clears what it left behind,
+		// but nothing else
+		Path interrupted = Files.createFile(cacheDir.resolve("metro1234567890.gz.tmp"));
+		Path orphan = Files.createFile(cacheDir.resolve("metro-" + "0".repeat(32) + ".json"));
+		Path unrelated = Files.createFile(cacheDir.resolve("notes.json"));
+		MockServerRestTemplateCustomizer restarted = new MockServerRestTemplateCustomizer();
+		assertThat(service(86_400_000, restarted).getLinePayload("metro")).isEqualTo(stored);
+		restarted.getServer().verify();
+		assertThat(interrupted).doesNotExist();
+		assertThat(orphan).doesNotExist();
+		assertThat(unrelated).exists();
+		assertThat(stored.body()).exists();
+	}
+
+	@Test
+	void revalidatesConditionallyAndKeepsTheReplacedVersion() throws IOException, InterruptedException {
+		TransportLineService service = service(0);
+		MockRestServiceServer server = customizer.getServer();
+		server.expect(requestTo(METRO_URL)).andRespond(withSuccess(METRO, MediaType.APPLICATION_JSON)
+				.headers(upstreamHeaders("\"v1\"")));
+		server.expect(requestTo(METRO_URL))
+				.andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+				.andExpect(header(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED))
+				.andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+		server.expect(requestTo(METRO_URL))
+				.andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+				.andRespond(withSuccess(METRO_V2, MediaType.APPLICATION_JSON).headers(upstreamHeaders("\"v2\"")));
+		server.expect(requestTo(METRO_URL))
+				.andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v2\""))
+				.andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+		server.expect(requestTo(METRO_URL))
+				.andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v2\""))
+				.andRespond(withSuccess(METRO_V3, MediaType.APPLICATION_JSON).headers(upstreamHeaders("\"v3\"")));
+		server.expect(requestTo(METRO_URL))
+				.andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v3\""))
+				.andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+		FilePayload v1 = (FilePayload) service.getLinePayload("metro");
+		// Stale layers are served as they are while upstream is asked in the background, here on this thread
+		Thread.sleep(2);
+		assertThat(service.getLinePayload("metro")).isEqualTo(v1);
+		Thread.sleep(2);
+		assertThat(service.getLinePayload("metro")).isEqualTo(v1);
+		Thread.sleep(2);
+		FilePayload v2 = (FilePayload) service.getLinePayload("metro");
+		assertThat(v2.etag()).isNotEqualTo(v1.etag());
+		assertThat(Files.readString(v2.body())).contains("Ligne A");
+		// Requests handed v1 just before may still open it
+		assertThat(v1.body()).exists();
+		assertThat(v1.gzip()).exists();
+
+		// Once v3 replaces v2, v1 goes
+		Thread.sleep(2);
+		assertThat(service.getLinePayload("metro")).isEqualTo(v2);
+		Thread.sleep(2);
+		FilePayload v3 = (FilePayload) service.getLinePayload("metro");
+		server.verify();
+		assertThat(Files.readString(v3.body())).contains("Ligne B");
+		assertThat(v1.body()).doesNotExist();
+		assertThat(v1.gzip()).doesNotExist();
+		assertThat(v2.body()).exists();
+	}
+
+	@Test
+	void leavesUpstreamAloneAfterAFailedRevalidation() throws InterruptedException {
+		// Every layer is stale straight away
+		TransportLineService service = service(0);
+		MockRestServiceServer server = customizer.getServer();
+		server.expect(requestTo(METRO_URL)).andRespond(withSuccess(METRO, MediaType.APPLICATION_JSON));
+		server.expect(requestTo(METRO_URL)).andRespond(withServerError());
+
+		Payload stored = service.getLinePayload("metro");
+		Thread.sleep(2);
+		assertThat(service.getLinePayload("metro")).isEqualTo(stored);
+		// Within failure-ttl-ms, the stored copy is served without asking upstream again
+		Thread.sleep(2);
+		assertThat(service.getLinePayload("metro")).isEqualTo(stored);
+		server.verify();
+	}
+
+	private TransportLineService service(long ttlMs) {
+		return service(ttlMs, customizer);
+	}
+
+	private TransportLineService service(long ttlMs, MockServerRestTemplateCustomizer customizer) {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		return new TransportLineService(METRO_URL, "http://upstream/tram.json", "http://upstream/bus.json",
+				"http://upstream/rhonexpress.json", "http://upstream/stops.json", cacheDir.toString(), ttlMs, 60_000,
+				new ObjectMapper(), Runnable::run, new RestTemplateBuilder(customizer),
+				new UpstreamResilience(10, 60_000, 300_000, meterRegistry), meterRegistry);
+	}
+
+	private static HttpHeaders upstreamHeaders(String etag) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setETag(etag);
+		headers.set(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED);
+		return headers;
+	}
+
+	private static String quoted(String json) {
+		return "\"" + json.replace("\"", "\\\"") + "\"";
+	}
+}
@@ -0,0 +1,112 @@
+package com.github.snownamida.lyon_server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorTileEncoderTest {
+
+	// One protobuf field: varint values in value, length-delimited ones in bytes
+	private record Field(int number, long value, byte[] bytes) {
+	}
+
+	@Test
+	void encodesALineThatDecodesBack() {
+		VectorTileEncoder encoder = new VectorTileEncoder("lines", 4096);
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("ligne", "T1");
+		properties.put("rank", 3);
+		properties.put("missing", null);
+		// Two runs: east then north, then a short one back near the origin
+		encoder.addLineString(List.of(new int[] { 10, 20, 15, 20, 15, 10 }, new int[] { 0, 0, 2, 0 }), properties);
+		encoder.addPoint(3, -1, Map.of("ligne", "T1"));
+
+		List<Field> tile = fields(encoder.encode());
+		assertThat(tile).extracting(Field::number).containsExactly(3);
+		List<Field> layer = fields(tile.get(0).bytes());
+		assertThat(first(layer, 15).value()).isEqualTo(2);
+		assertThat(string(first(layer, 1))).isEqualTo("lines");
+		assertThat(first(layer, 5).value()).isEqualTo(4096);
+		assertThat(all(layer, 3).stream().map(VectorTileEncoderTest::string)).containsExactly("ligne", "rank");
+		List<Field> values = all(layer, 4);
+		assertThat(values).hasSize(2);
+		assertThat(string(first(fields(values.get(0).bytes()), 1))).isEqualTo("T1");
+		// sint_value, zigzag encoded
+		assertThat(first(fields(values.get(1).bytes()), 6).value()).isEqualTo(6);
+
+		List<Field> features = all(layer, 2);
+		assertThat(features).hasSize(2);
+		List<Field> line = fields(features.get(0).bytes());
+		assertThat(first(line, 1).value()).isEqualTo(1);
+		assertThat(varints(first(line, 2).bytes())).containsExactly(0, 0, 1, 1);
+		assertThat(first(line, 3).value()).isEqualTo(2);
+		// MoveTo(1) = 9, then LineTo(n) = 2 | n << 3, each followed by zigzag deltas from the previous point
+		assertThat(varints(first(line, 4).bytes())).containsExactly(
+				9, 20, 40, 18, 10, 0, 0, 19,
+				9, 29, 19, 10, 4, 0);
+
+		List<Field> point = fields(features.get(1).bytes());
+		assertThat(first(point, 1).value()).isEqualTo(2);
+		assertThat(varints(first(point, 2).bytes())).containsExactly(0, 0);
+		assertThat(first(point, 3).value()).isEqualTo(1);
+		assertThat(varints(first(point, 4).bytes())).containsExactly(9, 6, 1);
+	}
+
+	private static List<Field> fields(byte[] message) {
+		ByteArrayInputStream in = new ByteArrayInputStream(message);
+		List<Field> fields = new ArrayList<>();
+		while (in.available() > 0) {
+			long tag = varint(in);
+			int number = (int) (tag >>> 3);
+			switch ((int) (tag & 0x7)) {
+			case 0 -> fields.add(new Field(number, varint(in), null));
+			case 2 -> {
+				byte[] bytes = new byte[(int) varint(in)];
+				in.read(bytes, 0, bytes.length);
+				fields.add(new Field(number, 0, bytes));
+			}
+			default -> throw new AssertionError("Unexpected wire type in tag " + tag);
+			}
+		}
+		return fields;
+	}
+
+	private static int[] varints(byte[] packed) {
+		ByteArrayInputStream in = new ByteArrayInputStream(packed);
+		List<Integer> values = new ArrayList<>();
+		while (in.available() > 0) {
+			values.add((int) varint(in));
+		}
+		return values.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static long varint(ByteArrayInputStream in) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private static Field first(List<Field> fields, int number) {
+		return all(fields, number).get(0);
+	}
+
+	private static List<Field> all(List<Field> fields, int number) {
+		return fields.stream().filter(field -> field.number() == number).toList();
+	}
+
+	private static String string(Field field) {
+		return new String(field.bytes(), StandardCharsets.UTF_8);
+	}
+}
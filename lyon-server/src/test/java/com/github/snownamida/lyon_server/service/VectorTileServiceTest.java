@@ -0,0 +1,29 @@
+package com.github.snownamida.lyon_server.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorTileServiceTest {
+
+	@Test
+	void clipsLineToTileAndSplitsRuns() {
+		// Enters the tile, leaves it, then comes back in
+		double[] line = { -100, 50, 50, 50, 50, 200, 80, 200, 80, 50 };
+
+		List<double[]> runs = VectorTileService.clip(line, 0, 100);
+
+		assertThat(runs).hasSize(2);
+		assertThat(runs.get(0)).containsExactly(0, 50, 50, 50, 50, 100);
+		assertThat(runs.get(1)).containsExactly(80, 100, 80, 50);
+	}
+
+	@Test
+	void simplifiesNearlyStraightLines() {
+		double[] line = { 0, 0, 10, 0.5, 20, -0.5, 30, 0, 30, 40 };
+
+		assertThat(VectorTileService.simplify(line, 1.0)).containsExactly(0, 0, 30, 0, 30, 40);
+	}
+}
@@ -0,0 +1,79 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehicleHistory;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VehicleHistoryServiceTest {
+
+	private final Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(100);
+
+	@Test
+	void recordsChangesAndReplaysThem() {
+		VehicleHistoryService history = new VehicleHistoryService(1 << 20, 6, 60_000, new SimpleMeterRegistry());
+
+		history.record(snapshot(0, vehicle("A", 45.75751, 4.82874, "PT3M"), vehicle("B", 45.7, 4.8, null)));
+		history.record(snapshot(3, vehicle("A", 45.758, 4.829, "PT2M"), vehicle("B", 45.7, 4.8, null)));
+		history.record(snapshot(6, vehicle("A", 45.758, 4.829, "PT2M")));
+		// Failed refreshes are not recorded
+		history.record(new VehicleData(List.of(), null, start.plusSeconds(7), "API_DOWN", 0));
+		history.record(snapshot(9, vehicle("A", 45.758, 4.829, "PT2M"), vehicle("B", 45.7, 4.8, null)));
+
+		VehicleHistory a = history.getHistory("A", Instant.EPOCH, Instant.now());
+		assertThat(a.points()).extracting(VehicleHistory.Point::time)
+				.containsExactly(start, start.plusSeconds(3));
+		assertThat(a.points().get(0).latitude()).isEqualTo(45.75751);
+		assertThat(a.points().get(0).longitude()).isEqualTo(4.82874);
+		assertThat(a.points().get(0).delay()).isEqualTo("PT3M");
+		assertThat(a.points().get(0).bearing()).isEqualTo(90.5);
+		assertThat(history.getHistory("B", Instant.EPOCH, Instant.now()).points())
+				.extracting(VehicleHistory.Point::time)
+				.containsExactly(start, start.plusSeconds(9));
+		assertThat(history.getHistory("A", start.plusSeconds(1), Instant.now()).points()).hasSize(1);
+		assertThat(history.getHistory("C", Instant.EPOCH, Instant.now())).isNull();
+
+		VehicleData at4 = history.replay(start.plusSeconds(4));
+		assertThat(at4.lastFetchTime()).isEqualTo(start.plusSeconds(3));
+		assertThat(at4.vehicles()).extracting(VehiclePosition::vehicleId).containsExactly("A", "B");
+		assertThat(at4.vehicles().get(0).latitude()).isEqualTo(45.758);
+		assertThat(history.replay(start.plusSeconds(7)).vehicles()).extracting(VehiclePosition::vehicleId)
+				.containsExactly("A");
+		assertThat(history.replay(start.plusSeconds(9)).vehicles()).hasSize(2);
+		assertThat(history.replay(start.minusSeconds(1))).isNull();
+	}
+
+	@Test
+	void keepsWithinTheMemoryBudget() {
+		VehicleHistoryService history = new VehicleHistoryService(VehicleHistoryService.SAMPLE_BYTES * 5L, 6,
+				1000, new SimpleMeterRegistry());
+
+		for (int i = 0; i < 10; i++) {
+			history.record(snapshot(i * 3, vehicle("A", 45 + i * 0.01, 4.8, null),
+					vehicle("B", 45 - i * 0.01, 4.8, null)));
+		}
+
+		// Only the last five samples are left: B at 21s, then A and B at 24s and 27s
+		assertThat(history.getHistory("A", Instant.EPOCH, Instant.now()).points())
+				.extracting(VehicleHistory.Point::time)
+				.containsExactly(start.plusSeconds(24), start.plusSeconds(27));
+		assertThat(history.replay(start.plusSeconds(27)).vehicles()).hasSize(2);
+		assertThat(history.replay(start.plusSeconds(20))).isNull();
+	}
+
+	private VehicleData snapshot(int seconds, VehiclePosition... vehicles) {
+		return new VehicleData(List.of(vehicles), null, start.plusSeconds(seconds), "OK", seconds);
+	}
+
+	private static VehiclePosition vehicle(String id, double latitude, double longitude, String delay) {
+		return new VehiclePosition(id, "C3", "inbound", latitude, longitude, delay, null, null, "Gare", "TCL",
+				90.5, "EXPECTED");
+	}
+}
@@ -0,0 +1,76 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import com.github.snownamida.lyon_server.model.VehicleStats;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class VehicleStatsServiceTest {
+
+	private final Instant fetched = Instant.parse("2025-12-29T18:40:00Z");
+
+	@Test
+	void aggregatesPerLineAndDirection() {
+		VehicleData snapshot = new VehicleData(List.of(
+				vehicle("1", "T1", "outbound", "PT2M", 30),
+				vehicle("2", "T1", "outbound", "-PT1M", 30),
+				vehicle("3", "T1", "outbound", "PT0S", -5),
+				vehicle("4", "T1", "outbound", "PT10M", 30),
+				vehicle("5", "T1", "inbound", null, 30),
+				vehicle("6", "C3", "outbound", "PT30S", -60)), fetched, fetched, "OK", 7);
+
+		VehicleStats stats = VehicleStatsService.compute(snapshot);
+
+		assertThat(stats.sequence()).isEqualTo(7);
+		assertThat(stats.lines()).extracting(VehicleStats.Group::lineId, VehicleStats.Group::direction)
+				.containsExactly(tuple("ActIV:Line::C3:SYTRAL", "outbound"), tuple("ActIV:Line::T1:SYTRAL", "inbound"),
+						tuple("ActIV:Line::T1:SYTRAL", "outbound"));
+
+		VehicleStats.Group t1 = stats.lines().get(2);
+		assertThat(t1.vehicles()).isEqualTo(4);
+		assertThat(t1.staleVehicles()).isEqualTo(1);
+		assertThat(t1.onTime()).isEqualTo(1);
+		assertThat(t1.late()).isEqualTo(2);
+		assertThat(t1.early()).isEqualTo(1);
+		assertThat(t1.delayP50()).isEqualTo(0);
+		assertThat(t1.delayP90()).isEqualTo(600);
+		assertThat(t1.delayMax()).isEqualTo(600);
+
+		// No delay reported: counted as on time, but no percentiles
+		VehicleStats.Group inbound = stats.lines().get(1);
+		assertThat(inbound.onTime()).isEqualTo(1);
+		assertThat(inbound.delayP50()).isNull();
+
+		VehicleStats.Group total = stats.total();
+		assertThat(total.lineId()).isNull();
+		assertThat(total.vehicles()).isEqualTo(6);
+		assertThat(total.staleVehicles()).isEqualTo(2);
+		assertThat(total.delayP50()).isEqualTo(30);
+		assertThat(total.delayMax()).isEqualTo(600);
+	}
+
+	@Test
+	void judgesStalePositionsAtPublication() {
+		// Last good positions republished two minutes later while upstream is down
+		VehicleData snapshot = new VehicleData(List.of(vehicle("1", "T1", "outbound", "PT0S", 60)), fetched, fetched,
+				"API_DOWN", 8, true, 120_000);
+
+		VehicleStats stats = VehicleStatsService.compute(snapshot);
+
+		assertThat(stats.stale()).isTrue();
+		assertThat(stats.total().staleVehicles()).isEqualTo(1);
+		assertThat(VehicleStatsService.compute(new VehicleData(List.of(), null, fetched, "OK", 0)).total().vehicles())
+				.isZero();
+	}
+
+	private VehiclePosition vehicle(String id, String line, String direction, String delay, long validForSeconds) {
+		return new VehiclePosition(id, "ActIV:Line::" + line + ":SYTRAL", direction, 45.75, 4.83, delay,
+				fetched.minusSeconds(10), fetched.plusSeconds(validForSeconds), null, null, null, null);
+	}
+}
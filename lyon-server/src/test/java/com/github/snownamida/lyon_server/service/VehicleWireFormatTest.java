@@ -0,0 +1,62 @@
+package com.github.snownamida.lyon_server.service;
+
+import com.github.snownamida.lyon_server.model.VehicleData;
+import com.github.snownamida.lyon_server.model.VehiclePosition;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VehicleWireFormatTest {
+
+	private final Instant fetched = Instant.parse("2025-12-29T18:40:00.123Z");
+
+	@Test
+	void roundTripsSnapshots() throws IOException {
+		VehiclePosition bus = new VehiclePosition("ActIV:Vehicle:Bus:1401:LOC", "ActIV:Line::C20E:SYTRAL",
+				"outbound", 45.7582, 4.830521, "PT3M", fetched.minusMillis(36_500), fetched.plusSeconds(24),
+				"ActIV:StopArea:SP:44316:SYTRAL", "ActIV", 92.5, "inProgress");
+		VehiclePosition tram = new VehiclePosition("ActIV:Vehicle:Tram:873:LOC", "ActIV:Line::T1:SYTRAL",
+				"inbound", 45.741234, 4.841201, "-PT1M30S", fetched.minusSeconds(2), null, null, "ActIV", null,
+				"inProgress");
+		VehicleData snapshot = new VehicleData(List.of(bus, tram), fetched.minusSeconds(1), fetched, "API_DOWN", 42,
+				true, 90_000);
+
+		VehicleData decoded = VehicleWireFormat.decode(VehicleWireFormat.encode(snapshot));
+
+		assertThat(decoded).isEqualTo(snapshot);
+		VehicleData empty = new VehicleData(List.of(), null, Instant.EPOCH, "OK", 0);
+		assertThat(VehicleWireFormat.decode(VehicleWireFormat.encode(empty))).isEqualTo(empty);
+	}
+
+	@Test
+	void repeatsNoStrings() {
+		VehiclePosition template = new VehiclePosition(null, "ActIV:Line::C20E:SYTRAL", "outbound", 45.75, 4.83,
+				"PT0S", fetched, fetched.plusSeconds(60), "ActIV:StopArea:SP:44316:SYTRAL", "ActIV", 90.0, "inProgress");
+		List<VehiclePosition> vehicles = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			vehicles.add(new VehiclePosition("ActIV:Vehicle:Bus:" + i + ":LOC", template.lineId(),
+					template.direction(), template.latitude() + i * 1e-4, template.longitude(), template.delay(),
+					template.recordedAtTime(), template.validUntilTime(), template.destinationName(),
+					template.dataSource(), template.bearing(), template.vehicleStatus()));
+		}
+
+		byte[] encoded = VehicleWireFormat.encode(new VehicleData(vehicles, fetched, fetched, "OK", 1));
+
+		// Vehicle ids, the shared strings once, then a few bytes per vehicle for the rest
+		assertThat(encoded.length).isLessThan(100 * ("ActIV:Vehicle:Bus:00:LOC".length() + 20) + 200);
+	}
+
+	@Test
+	void isOnlyNegotiatedWhenNamed() {
+		assertThat(VehicleWireFormat.isAccepted("application/vnd.lyon.vehicles")).isTrue();
+		assertThat(VehicleWireFormat.isAccepted("application/vnd.lyon.vehicles;q=0.9, application/json")).isTrue();
+		assertThat(VehicleWireFormat.isAccepted("application/vnd.lyon.vehicles;q=0")).isFalse();
+		assertThat(VehicleWireFormat.isAccepted("*/*")).isFalse();
+		assertThat(VehicleWireFormat.isAccepted(null)).isFalse();
+	}
+}
@@ -175,7 +175,7 @@ export default function Dashboard({
                         </div>
 
                         {/* API Status Warning */}
-                        {data?.apiStatus && data.apiStatus !== 'OK' && (
+                        {data?.apiStatus && data.apiStatus !== 'OK' && data.apiStatus !== 'STARTING' && (
                             <div style={{
                                 background: '#fff5f5',
                                 border: '1px solid #feb2b2',
@@ -192,6 +192,9 @@ export default function Dashboard({
                                 <div>
                                     <strong>Grand Lyon API Issue:</strong><br />
                                     {data.apiStatus === 'API_DOWN' ? 'Upstream server unreachable' : data.apiStatus}
+                                    {data.stale && data.vehicles.length > 0 && (
+                                        <><br />Showing positions from {Math.round((Date.now() - Date.parse(data.lastFetchTime)) / 60000)} min ago</>
+                                    )}
                                 </div>
                             </div>
                         )}
@@ -1,12 +1,44 @@
-import { useState, useEffect } from 'react';
-import { VehicleData } from '../types';
+import { useState, useEffect, useRef } from 'react';
+import { VehicleData, VehicleDelta, VehiclePosition } from '../types';
+import { decodeVehicles, VEHICLE_WIRE_TYPE } from '../vehicleWire';
 
 const REFRESH_INTERVAL = 3000;
 
+// Returns null when the delta doesn't apply to what we hold, the caller then reloads the full snapshot
+function applyDelta(current: VehicleData | null, delta: VehicleDelta): VehicleData | null {
+  if (!delta.reset && (!current || current.sequence !== delta.since)) {
+    return null;
+  }
+  const byId = new Map<string, VehiclePosition>();
+  if (!delta.reset && current) {
+    current.vehicles.forEach(v => byId.set(v.vehicleId, v));
+  }
+  delta.removed.forEach(id => byId.delete(id));
+  delta.added.forEach(v => byId.set(v.vehicleId, v));
+  delta.changed.forEach(v => byId.set(v.vehicleId, v));
+  return {
+    vehicles: Array.from(byId.values()),
+    apiResponseTimestamp: delta.apiResponseTimestamp,
+    lastFetchTime: delta.lastFetchTime,
+    apiStatus: delta.apiStatus,
+    sequence: delta.sequence,
+    stale: delta.stale,
+    ageMs: delta.ageMs,
+  };
+}
+
 export function useVehicleData() {
   const [data, setData] = useState<VehicleData | null>(null);
   const [error, setError] = useState<string | null>(null);
   const [isWakingUp, setIsWakingUp] = useState(false);
+  // Latest snapshot for the stream handlers, which are registered once
+  const dataRef = useRef<VehicleData | null>(null);
+
+  useEffect(() => {
+    dataRef.current = data;
+  }, [data]);
+
+  const apiUrl = process.env.NEXT_PUBLIC_API_URL || 'http://localhost:8080';
 
   const fetchData = async () => {
     // If it's the very first fetch, start a wake-up timer
@@ -16,13 +48,17 @@ export function useVehicleData() {
     }
 
     try {
-      const apiUrl = process.env.NEXT_PUBLIC_API_URL || 'http://localhost:8080';
-      const response = await fetch(apiUrl + '/api/vehicles');
+      // The compact encoding is a fraction of the gzipped JSON and quicker to decode
+      const response = await fetch(apiUrl + '/api/vehicles', {
+        headers: { Accept: `${VEHICLE_WIRE_TYPE}, application/json;q=0.5` },
+      });
       if (!response.ok) {
         throw new Error(`Server responded with ${response.status}`);
       }
-      const jsonData = await response.json();
-      setData(jsonData);
+      const contentType = response.headers.get('Content-Type') || '';
+      setData(contentType.startsWith(VEHICLE_WIRE_TYPE)
+        ? decodeVehicles(await response.arrayBuffer())
+        : await response.json());
       setError(null);
       setIsWakingUp(false);
     } catch (err: any) {
@@ -35,8 +71,49 @@ export function useVehicleData() {
 
   useEffect(() => {
     fetchData(); // Initial fetch
-    const refreshInterval = setInterval(fetchData, REFRESH_INTERVAL);
-    return () => clearInterval(refreshInterval);
+
+    // Browsers without EventSource keep polling like before
+    if (typeof EventSource === 'undefined') {
+      const refreshInterval = setInterval(fetchData, REFRESH_INTERVAL);
+      return () => clearInterval(refreshInterval);
+    }
+
+    // The server pushes every new snapshot, polling only kicks in while the stream is down
+    let fallbackInterval: NodeJS.Timeout | null = null;
+    const stopPolling = () => {
+      if (fallbackInterval) clearInterval(fallbackInterval);
+      fallbackInterval = null;
+    };
+
+    const source = new EventSource(apiUrl + '/api/vehicles/stream');
+    source.addEventListener('snapshot', (event) => {
+      stopPolling();
+      setData(JSON.parse((event as MessageEvent).data));
+      setError(null);
+      setIsWakingUp(false);
+    });
+    source.addEventListener('delta', (event) => {
+      const delta: VehicleDelta = JSON.parse((event as MessageEvent).data);
+      const next = applyDelta(dataRef.current, delta);
+      if (!next) {
+        fetchData(); // We missed an update, start over from a full snapshot
+        return;
+      }
+      stopPolling();
+      dataRef.current = next;
+      setData(next);
+      setError(null);
+    });
+    source.onerror = () => {
+      if (!fallbackInterval) {
+        fallbackInterval = setInterval(fetchData, REFRESH_INTERVAL);
+      }
+    };
+
+    return () => {
+      source.close();
+      stopPolling();
+    };
   }, []);
 
   return { data, error, isWakingUp, reload: fetchData };
@@ -37,4 +37,23 @@ export interface VehicleData {
   apiResponseTimestamp: string;
   lastFetchTime: string;
   apiStatus?: string;
+  sequence: number;
+  // Set while upstream is failing: these are the last good positions, fetched at lastFetchTime. ageMs is
+  // their age when published, which isn't repeated while nothing changes.
+  stale?: boolean;
+  ageMs?: number;
+}
+
+export interface VehicleDelta {
+  sequence: number;
+  since: number;
+  reset: boolean;
+  added: VehiclePosition[];
+  changed: VehiclePosition[];
+  removed: string[];
+  apiResponseTimestamp: string;
+  lastFetchTime: string;
+  apiStatus?: string;
+  stale?: boolean;
+  ageMs?: number;
 }
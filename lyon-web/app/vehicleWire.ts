@@ -0,0 +1,155 @@
+import { VehicleData, VehiclePosition } from './types';
+
+// Decoder for the server's compact snapshot encoding (VehicleWireFormat.java, which documents the layout).
+// Requested with this Accept header; anything else gets JSON.
+export const VEHICLE_WIRE_TYPE = 'application/vnd.lyon.vehicles';
+
+const VERSION = 1;
+const STALE = 1;
+const MICRO_DEGREES = 1e6;
+
+export function decodeVehicles(buffer: ArrayBuffer): VehicleData {
+  const bytes = new Uint8Array(buffer);
+  const decoder = new TextDecoder();
+  let pos = 0;
+
+  // Plain arithmetic instead of bit operations, which would truncate millisecond values to 32 bits
+  const varint = (): number => {
+    let value = 0;
+    let scale = 1;
+    let b: number;
+    do {
+      b = bytes[pos++];
+      value += (b & 0x7f) * scale;
+      scale *= 128;
+    } while (b & 0x80);
+    return value;
+  };
+  const zigZag = (value: number): number => (value % 2 === 0 ? value / 2 : -(value + 1) / 2);
+  const instant = (reference: number): number | null => {
+    const value = varint();
+    return value === 0 ? null : reference + zigZag(value - 1);
+  };
+  // toISOString is the slowest step of the decode, so it runs once per distinct second (years 1970-9999)
+  const seconds = new Map<number, string>();
+  const iso = (millis: number | null): string | null => {
+    if (millis === null) return null;
+    if (millis < 0 || millis >= 253402300800000) return new Date(millis).toISOString();
+    const second = Math.floor(millis / 1000);
+    let prefix = seconds.get(second);
+    if (prefix === undefined) {
+      prefix = new Date(second * 1000).toISOString().slice(0, 20);
+      seconds.set(second, prefix);
+    }
+    const ms = millis - second * 1000;
+    return prefix + (ms < 10 ? '00' : ms < 100 ? '0' : '') + ms + 'Z';
+  };
+
+  // Front coded: each string reuses the start of the previous one, only the rest is decoded
+  const strings = (count: number): (string | null)[] => {
+    const values = new Array<string | null>(count);
+    let previous = '';
+    for (let i = 0; i < count; i++) {
+      const shared = varint();
+      const length = varint();
+      if (length === 0) {
+        values[i] = null;
+        continue;
+      }
+      const end = pos + length - 1;
+      let rest = '';
+      for (let k = pos; k < end; k++) {
+        if (bytes[k] >= 0x80) {
+          rest = decoder.decode(bytes.subarray(pos, end));
+          break;
+        }
+        rest += String.fromCharCode(bytes[k]);
+      }
+      pos = end;
+      previous = previous.slice(0, shared) + rest;
+      values[i] = previous;
+    }
+    return values;
+  };
+
+  if (bytes[0] !== 0x4c || bytes[1] !== 0x59 || bytes[2] !== 0x56 || bytes[3] !== VERSION) {
+    throw new Error('Unsupported vehicle snapshot encoding');
+  }
+  pos = 4;
+
+  const sequence = varint();
+  const fetch = varint();
+  const fetchMillis = fetch === 0 ? 0 : fetch - 1;
+  const apiResponseTimestamp = iso(instant(fetchMillis));
+  const apiStatus = strings(1)[0];
+  const stale = (varint() & STALE) !== 0;
+  const ageMs = varint();
+
+  const count = varint();
+  const vehicleIds = strings(count);
+  const column = (): (string | null)[] => {
+    const dictionary = strings(varint());
+    const values = new Array<string | null>(count);
+    for (let i = 0; i < count; i++) {
+      const code = varint();
+      values[i] = code === 0 ? null : dictionary[code - 1];
+    }
+    return values;
+  };
+  const lineIds = column();
+  const directions = column();
+  const destinations = column();
+  const dataSources = column();
+  const statuses = column();
+  const delays = column();
+
+  const latitudes = new Float64Array(count);
+  const longitudes = new Float64Array(count);
+  for (let i = 0, value = 0; i < count; i++) {
+    value += zigZag(varint());
+    latitudes[i] = value / MICRO_DEGREES;
+  }
+  for (let i = 0, value = 0; i < count; i++) {
+    value += zigZag(varint());
+    longitudes[i] = value / MICRO_DEGREES;
+  }
+  const bearings = new Array<number | null>(count);
+  for (let i = 0; i < count; i++) {
+    const value = varint();
+    bearings[i] = value === 0 ? null : (value - 1) / 10;
+  }
+  const recordedAts = new Array<number | null>(count);
+  for (let i = 0, previous = fetchMillis; i < count; i++) {
+    recordedAts[i] = instant(previous);
+    previous = recordedAts[i] ?? previous;
+  }
+
+  // Same shape as the JSON snapshot, nulls included
+  const vehicles = new Array<VehiclePosition>(count);
+  for (let i = 0; i < count; i++) {
+    vehicles[i] = {
+      vehicleId: vehicleIds[i],
+      lineId: lineIds[i],
+      direction: directions[i],
+      latitude: latitudes[i],
+      longitude: longitudes[i],
+      delay: delays[i],
+      recordedAtTime: iso(recordedAts[i]),
+      validUntilTime: iso(instant(recordedAts[i] ?? fetchMillis)),
+      destinationName: destinations[i],
+      dataSource: dataSources[i],
+      bearing: bearings[i],
+      vehicleStatus: statuses[i],
+    } as VehiclePosition;
+  }
+
+  return {
+    vehicles,
+    apiResponseTimestamp,
+    lastFetchTime: fetch === 0 ? null : iso(fetchMillis),
+    apiStatus,
+    sequence,
+    stale,
+    ageMs,
+  } as VehicleData;
+}